@@ -14,6 +14,9 @@ function printGenerationDetails() {
   for elem in "${elemArray[@]}"; do
     echo "  ${elem}"
   done
+  for elem in "${mutableArray[@]}"; do
+    echo "  ${elem} (mutable)"
+  done
 }
 
 function writeTop() {
@@ -48,6 +51,11 @@ function writeInnerStaticClass() {
   for elem in "${elemArray[@]}"; do 
     echo "    final ${elem};"
   done
+
+  # Add mutable fields, filled in by later passes (e.g. the Resolver)
+  for elem in "${mutableArray[@]}"; do
+    echo "    ${elem};"
+  done
   echo
 
   # Add Constructor
@@ -97,6 +105,16 @@ function generate() {
 
   # Read Descriptor File, skipping header row
   while IFS=":" read -r innerClassName elements; do
+    # Fields after a '|' are mutable and are not constructor parameters
+    mutableArray=()
+    if [[ "${elements}" == *"|"* ]]; then
+      readarray -td , mutableArray <<< "${elements#*|}"
+      elements="${elements%%|*}"
+      for ((i = 0; i < ${#mutableArray[@]}; i++)); do
+        mutableArray[$i]=$(echo -n "${mutableArray[$i]}"|sed 's/\n//g')
+      done
+    fi
+
     readarray -td , elemArray <<< "${elements}" # Generate Array from CSV
     
     # Bugfix: Remove \n from last element
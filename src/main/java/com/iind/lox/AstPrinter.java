@@ -6,6 +6,8 @@ import com.iind.lox.Expr.Block;
 import com.iind.lox.Expr.Call;
 import com.iind.lox.Expr.Get;
 import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
 import com.iind.lox.Expr.Literal;
 import com.iind.lox.Expr.Logical;
 import com.iind.lox.Expr.Set;
@@ -16,6 +18,7 @@ import com.iind.lox.Expr.Unary;
 import com.iind.lox.Expr.Variable;
 import com.iind.lox.Stmt.ClassDecl;
 import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
 import com.iind.lox.Stmt.Function;
 import com.iind.lox.Stmt.IfControl;
 import com.iind.lox.Stmt.Print;
@@ -114,6 +117,19 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize("while", whileControl.cond) + whileControl.body.accept(this);
   }
 
+  @Override
+  public String visitForControlStmt(ForControl forControl) {
+    String initializer =
+        forControl.initializer != null ? forControl.initializer.accept(this) : "";
+    String increment = forControl.increment != null ? forControl.increment.accept(this) : "";
+    return String.format(
+        "for(%s; %s; %s)%s",
+        initializer,
+        forControl.cond.accept(this),
+        increment,
+        forControl.body.accept(this));
+  }
+
   @Override
   public String visitVarStmt(Var var) {
     return "varDecl: " + var.name.lexeme + " = " + var.initializer.accept(this);
@@ -185,6 +201,16 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     throw new UnsupportedOperationException("Unimplemented method 'visitThissExpr'");
   }
 
+  @Override
+  public String visitInlinedExpr(Inlined inlined) {
+    return inlined.call.accept(this);
+  }
+
+  @Override
+  public String visitInvariantExpr(Invariant invariant) {
+    return invariant.expr.accept(this);
+  }
+
   @Override
   public String visitGetExpr(Get get) {
     // TODO Auto-generated method stub
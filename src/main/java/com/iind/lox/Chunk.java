@@ -0,0 +1,148 @@
+package com.iind.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Chunk {
+  byte[] code = new byte[64];
+  int[] lines = new int[64];
+  int count;
+  final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> literals = new HashMap<>();
+
+  void write(byte b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+    code[count] = b;
+    lines[count] = line;
+    count++;
+  }
+
+  void writeShort(int value, int line) {
+    write((byte) ((value >> 8) & 0xff), line);
+    write((byte) (value & 0xff), line);
+  }
+
+  void writeMedium(int value, int line) {
+    write((byte) ((value >> 16) & 0xff), line);
+    writeShort(value, line);
+  }
+
+  void writeInt(int value, int line) {
+    write((byte) ((value >> 24) & 0xff), line);
+    writeMedium(value, line);
+  }
+
+  // Numbers and strings are pooled once each, generated scripts can hold many thousands
+  int addConstant(Object value) {
+    if (value instanceof Double || value instanceof String) {
+      Integer index = literals.putIfAbsent(value, constants.size());
+      if (index != null) {
+        return index;
+      }
+    }
+    constants.add(value);
+    return constants.size() - 1;
+  }
+
+  int readShort(int offset) {
+    return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+  }
+
+  int readMedium(int offset) {
+    return ((code[offset] & 0xff) << 16) | readShort(offset + 1);
+  }
+
+  int readInt(int offset) {
+    return ((code[offset] & 0xff) << 24) | readMedium(offset + 1);
+  }
+
+  // Globals are operands by slot, the table gives their names back
+  void disassemble(String name, Globals globals) {
+    System.out.printf("== %s ==%n", name);
+    for (int offset = 0; offset < count; ) {
+      offset = disassembleInstruction(offset, globals);
+    }
+    for (Object constant : constants) {
+      if (constant instanceof VMFunction) {
+        VMFunction function = (VMFunction) constant;
+        function.chunk.disassemble(function.toString(), globals);
+      }
+    }
+  }
+
+  private Object constantAt(int index) {
+    Object constant = constants.get(index);
+    return constant instanceof Token ? ((Token) constant).lexeme : constant;
+  }
+
+  private int disassembleInstruction(int offset, Globals globals) {
+    byte op = code[offset];
+    boolean sameLine = offset > 0 && lines[offset] == lines[offset - 1];
+    String line = sameLine ? "   |" : String.format("%4d", lines[offset]);
+    String prefix = String.format("%04d %s %-14s", offset, line, OpCode.NAMES[op]);
+
+    switch (op) {
+      case OpCode.GET_GLOBAL:
+      case OpCode.DEFINE_GLOBAL:
+      case OpCode.SET_GLOBAL:
+        System.out.printf("%s %s%n", prefix, globals.name(readShort(offset + 1)));
+        return offset + 3;
+      case OpCode.CONSTANT:
+        System.out.printf("%s %s%n", prefix, constantAt(readShort(offset + 1)));
+        return offset + 3;
+      case OpCode.CONSTANT_LONG:
+      case OpCode.GET_PROPERTY:
+      case OpCode.SET_PROPERTY:
+      case OpCode.GET_SUPER:
+        System.out.printf("%s %s%n", prefix, constantAt(readMedium(offset + 1)));
+        return offset + 4;
+      case OpCode.GET_LOCAL:
+      case OpCode.SET_LOCAL:
+      case OpCode.GET_UPVALUE:
+      case OpCode.SET_UPVALUE:
+      case OpCode.CALL:
+        System.out.printf("%s %d%n", prefix, code[offset + 1] & 0xff);
+        return offset + 2;
+      case OpCode.GET_LOCAL_LONG:
+      case OpCode.SET_LOCAL_LONG:
+      case OpCode.GET_UPVALUE_LONG:
+      case OpCode.SET_UPVALUE_LONG:
+        System.out.printf("%s %d%n", prefix, readShort(offset + 1));
+        return offset + 3;
+      case OpCode.JUMP:
+      case OpCode.JUMP_IF_FALSE:
+        System.out.printf("%s -> %d%n", prefix, offset + 5 + readInt(offset + 1));
+        return offset + 5;
+      case OpCode.LOOP:
+        System.out.printf("%s -> %d%n", prefix, offset + 5 - readInt(offset + 1));
+        return offset + 5;
+      case OpCode.INVOKE:
+        System.out.printf(
+            "%s %s %d%n", prefix, constantAt(readMedium(offset + 1)), code[offset + 4] & 0xff);
+        return offset + 5;
+      case OpCode.CLASS:
+        System.out.printf(
+            "%s %s %d%s%n",
+            prefix,
+            constantAt(readMedium(offset + 1)),
+            readShort(offset + 4),
+            code[offset + 6] != 0 ? " <" : "");
+        return offset + 7;
+      case OpCode.CLOSURE:
+        {
+          VMFunction function = (VMFunction) constants.get(readMedium(offset + 1));
+          System.out.printf("%s %s%n", prefix, function);
+          return offset + 4 + function.upvalueCount * 3;
+        }
+      default:
+        System.out.println(prefix);
+        return offset + 1;
+    }
+  }
+}
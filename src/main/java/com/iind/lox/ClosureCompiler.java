@@ -0,0 +1,703 @@
+package com.iind.lox;
+
+import com.iind.lox.Expr.Assignment;
+import com.iind.lox.Expr.Binary;
+import com.iind.lox.Expr.Block;
+import com.iind.lox.Expr.Call;
+import com.iind.lox.Expr.Get;
+import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
+import com.iind.lox.Expr.Literal;
+import com.iind.lox.Expr.Logical;
+import com.iind.lox.Expr.Set;
+import com.iind.lox.Expr.Superr;
+import com.iind.lox.Expr.Ternary;
+import com.iind.lox.Expr.Thiss;
+import com.iind.lox.Expr.Unary;
+import com.iind.lox.Expr.Variable;
+import com.iind.lox.Interpreter.Completion;
+import com.iind.lox.Stmt.ClassDecl;
+import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
+import com.iind.lox.Stmt.Function;
+import com.iind.lox.Stmt.IfControl;
+import com.iind.lox.Stmt.Print;
+import com.iind.lox.Stmt.ReturnControl;
+import com.iind.lox.Stmt.Var;
+import com.iind.lox.Stmt.WhileControl;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles a resolved AST once into a tree of lambdas. Slots, operators and global names are
+// captured when the lambda is created, so running a program never goes through the visitors.
+// Locals live on the engine's ValueStack, and statements report how they completed the way
+// the tree-walker's do, so a return does not unwind through an exception.
+public class ClosureCompiler
+    implements Expr.Visitor<ClosureCompiler.Eval>, Stmt.Visitor<ClosureCompiler.Exec> {
+  @FunctionalInterface
+  interface Eval {
+    Object eval(ValueStack stack);
+  }
+
+  @FunctionalInterface
+  interface Exec {
+    Completion exec(ValueStack stack);
+  }
+
+  private final Globals globals;
+  private final ValueStack stack;
+  private int scopeDepth;
+
+  ClosureCompiler(Globals globals, ValueStack stack) {
+    this.globals = globals;
+    this.stack = stack;
+  }
+
+  Exec[] compile(List<Stmt> statements) {
+    Exec[] code = new Exec[statements.size()];
+    for (int i = 0; i < code.length; ++i) {
+      code[i] = compile(statements.get(i));
+    }
+    return code;
+  }
+
+  private Exec compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Eval compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Declarations at the top level are bound in the globals, everywhere else pushed into the
+  // slot that comes next in the frame
+  private Exec define(Token name, Eval value) {
+    if (scopeDepth == 0) {
+      int global = globals.slot(name.lexeme);
+      return stack -> {
+        globals.define(global, value.eval(stack));
+        return Completion.NORMAL;
+      };
+    }
+    return stack -> {
+      stack.push(value.eval(stack));
+      return Completion.NORMAL;
+    };
+  }
+
+  // A function or class capturing its own name needs the box in its slot before it exists
+  private static Exec defineBoxed(Eval value) {
+    return stack -> {
+      Environment.Box box = new Environment.Box(null);
+      stack.push(box);
+      box.value = value.eval(stack);
+      return Completion.NORMAL;
+    };
+  }
+
+  private static Completion execute(Exec[] statements, ValueStack stack) {
+    for (Exec statement : statements) {
+      if (statement.exec(stack) == Completion.RETURN) {
+        return Completion.RETURN;
+      }
+    }
+    return Completion.NORMAL;
+  }
+
+  // Statement visit methods
+  @Override
+  public Exec visitExpressionStmt(Expression expression) {
+    Eval expr = compile(expression.expr);
+    return stack -> {
+      expr.eval(stack);
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public Exec visitPrintStmt(Print print) {
+    Eval expr = compile(print.expr);
+    return stack -> {
+      Object value = expr.eval(stack);
+
+      if (!Lox.OPTIONS.silentMode) {
+        System.out.println(Interpreter.stringify(value));
+      }
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public Exec visitVarStmt(Var var) {
+    Eval initializer = var.initializer != null ? compile(var.initializer) : stack -> null;
+    if (var.boxed) {
+      return stack -> {
+        stack.push(new Environment.Box(initializer.eval(stack)));
+        return Completion.NORMAL;
+      };
+    }
+    return define(var.name, initializer);
+  }
+
+  @Override
+  public Exec visitBlockStmt(Stmt.Block block) {
+    if (!block.ownFrame) {
+      Exec[] statements = compile(block.statements);
+      // A return leaves the whole frame, only a normal exit gives the slots back
+      return stack -> {
+        int top = stack.sp;
+        if (execute(statements, stack) == Completion.RETURN) {
+          return Completion.RETURN;
+        }
+        stack.popTo(top);
+        return Completion.NORMAL;
+      };
+    }
+
+    ++scopeDepth;
+    Exec[] statements = compile(block.statements);
+    --scopeDepth;
+
+    // Only at the top level, where nothing returns
+    return stack -> {
+      int prevFp = stack.fp;
+      int top = stack.sp;
+      stack.fp = top;
+      execute(statements, stack);
+      stack.popTo(top);
+      stack.fp = prevFp;
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public Exec visitIfControlStmt(IfControl ifControl) {
+    Eval cond = compile(ifControl.cond);
+    Exec thenBranch = compile(ifControl.thenBranch);
+
+    if (ifControl.elseBranch == null) {
+      return stack -> {
+        if (Interpreter.isTruthy(cond.eval(stack))) {
+          return thenBranch.exec(stack);
+        }
+        return Completion.NORMAL;
+      };
+    }
+
+    Exec elseBranch = compile(ifControl.elseBranch);
+    return stack -> {
+      if (Interpreter.isTruthy(cond.eval(stack))) {
+        return thenBranch.exec(stack);
+      }
+      return elseBranch.exec(stack);
+    };
+  }
+
+  @Override
+  public Exec visitWhileControlStmt(WhileControl whileControl) {
+    Eval cond = compile(whileControl.cond);
+    Exec body = compile(whileControl.body);
+
+    return stack -> {
+      while (Interpreter.isTruthy(cond.eval(stack))) {
+        if (body.exec(stack) == Completion.RETURN) {
+          return Completion.RETURN;
+        }
+      }
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public Exec visitForControlStmt(ForControl forControl) {
+    boolean ownFrame = forControl.ownFrame;
+    if (ownFrame) {
+      ++scopeDepth;
+    }
+    Exec initializer = forControl.initializer != null ? compile(forControl.initializer) : null;
+    Eval cond = compile(forControl.cond);
+    Eval increment = forControl.increment != null ? compile(forControl.increment) : null;
+
+    Exec body = compile(forControl.body);
+    if (ownFrame) {
+      --scopeDepth;
+    }
+
+    return stack -> {
+      int prevFp = stack.fp;
+      int top = stack.sp;
+      if (ownFrame) {
+        stack.fp = top;
+      }
+      if (initializer != null) {
+        initializer.exec(stack);
+      }
+
+      while (Interpreter.isTruthy(cond.eval(stack))) {
+        if (body.exec(stack) == Completion.RETURN) {
+          return Completion.RETURN;
+        }
+        if (increment != null) {
+          increment.eval(stack);
+        }
+      }
+      stack.popTo(top);
+      stack.fp = prevFp;
+      return Completion.NORMAL;
+    };
+  }
+
+  @Override
+  public Exec visitReturnControlStmt(ReturnControl returnControl) {
+    if (returnControl.res == null) {
+      return stack -> Completion.RETURN;
+    }
+
+    Eval res = compile(returnControl.res);
+    return stack -> {
+      stack.returnValue = res.eval(stack);
+      return Completion.RETURN;
+    };
+  }
+
+  @Override
+  public Exec visitFunctionStmt(Function fun) {
+    ClosureFunction.Code code = compileFunction(fun);
+    Eval function = stack -> code.newFunction(null, false);
+    return fun.boxed ? defineBoxed(function) : define(fun.name, function);
+  }
+
+  private ClosureFunction.Code compileFunction(Function fun) {
+    ++scopeDepth;
+    Exec[] body = compile(fun.body);
+    --scopeDepth;
+
+    return new ClosureFunction.Code(fun, body, stack);
+  }
+
+  @Override
+  public Exec visitClassDeclStmt(ClassDecl classDecl) {
+    String name = classDecl.name.lexeme;
+    Eval superClass = classDecl.superClass != null ? compile(classDecl.superClass) : null;
+    Token superName = classDecl.superClass != null ? classDecl.superClass.name : null;
+
+    ClosureFunction.Code[] methods = new ClosureFunction.Code[classDecl.methods.size()];
+    for (int i = 0; i < methods.length; ++i) {
+      methods[i] = compileFunction(classDecl.methods.get(i));
+    }
+
+    Eval xlass =
+        stack -> {
+          Object superValue = null;
+          Object[] scope = null;
+          if (superClass != null) {
+            superValue = superClass.eval(stack);
+            if (!(superValue instanceof LoxClass)) {
+              throw new RuntimeError(superName, "Super class must be a class.");
+            }
+            scope = new Object[] {superValue};
+          }
+
+          Map<String, LoxMethod> table = new HashMap<>();
+          for (ClosureFunction.Code method : methods) {
+            boolean isInitializer = "init".equals(method.name.lexeme);
+            table.put(method.name.lexeme, method.newFunction(scope, isInitializer));
+          }
+
+          return new LoxClass(name, (LoxClass) superValue, table);
+        };
+    return classDecl.boxed ? defineBoxed(xlass) : define(classDecl.name, xlass);
+  }
+
+  // Expression visit methods
+  @Override
+  public Eval visitLiteralExpr(Literal literal) {
+    Object value = literal.value;
+    return stack -> value;
+  }
+
+  @Override
+  public Eval visitGroupingExpr(Grouping grouping) {
+    return compile(grouping.expression);
+  }
+
+  @Override
+  public Eval visitVariableExpr(Variable variable) {
+    if (variable.boxed) {
+      int depth = variable.depth;
+      int slot = variable.slot;
+      return stack -> ((Environment.Box) stack.getAt(depth, slot)).value;
+    }
+    return read(variable.name, variable.depth, variable.slot);
+  }
+
+  @Override
+  public Eval visitThissExpr(Thiss thiss) {
+    return read(thiss.keyword, thiss.depth, thiss.slot);
+  }
+
+  private Eval read(Token name, int depth, int slot) {
+    if (depth < 0) {
+      int global = globals.slot(name.lexeme);
+      return stack -> globals.get(global, name.line);
+    } else if (depth == 0) {
+      return stack -> stack.values[stack.fp + slot];
+    }
+    return stack -> stack.captured[slot];
+  }
+
+  @Override
+  public Eval visitAssignmentExpr(Assignment assignment) {
+    Eval value = compile(assignment.value);
+    Token name = assignment.name;
+    int depth = assignment.depth;
+    int slot = assignment.slot;
+
+    if (depth < 0) {
+      int global = globals.slot(name.lexeme);
+      return stack -> {
+        Object res = value.eval(stack);
+        globals.assign(global, res, name.line);
+        return res;
+      };
+    } else if (assignment.boxed) {
+      return stack -> {
+        Object res = value.eval(stack);
+        ((Environment.Box) stack.getAt(depth, slot)).value = res;
+        return res;
+      };
+    }
+    return stack -> {
+      Object res = value.eval(stack);
+      stack.assignAt(depth, slot, res);
+      return res;
+    };
+  }
+
+  @Override
+  public Eval visitBlockExpr(Block block) {
+    Eval expr = compile(block.expr);
+    Eval right = compile(block.right);
+
+    return stack -> {
+      Object res = expr.eval(stack);
+      right.eval(stack);
+      return res;
+    };
+  }
+
+  @Override
+  public Eval visitTernaryExpr(Ternary ternary) {
+    Eval cond = compile(ternary.cond);
+    Eval exprTrue = compile(ternary.exprTrue);
+    Eval exprFalse = compile(ternary.exprFalse);
+
+    return stack ->
+        Interpreter.isTruthy(cond.eval(stack)) ? exprTrue.eval(stack) : exprFalse.eval(stack);
+  }
+
+  @Override
+  public Eval visitLogicalExpr(Logical logical) {
+    Eval left = compile(logical.left);
+    Eval right = compile(logical.right);
+
+    if (logical.operator.type == TokenType.OR) {
+      return stack -> {
+        Object lhs = left.eval(stack);
+        return Interpreter.isTruthy(lhs) ? lhs : right.eval(stack);
+      };
+    }
+    return stack -> {
+      Object lhs = left.eval(stack);
+      return Interpreter.isTruthy(lhs) ? right.eval(stack) : lhs;
+    };
+  }
+
+  // Arithmetic and comparisons take the double path inline and leave everything else,
+  // including the error reporting, to the tree-walker's shared implementation.
+  @Override
+  public Eval visitBinaryExpr(Binary binary) {
+    Token operator = binary.operator;
+    Eval left = compile(binary.left);
+    Eval right = compile(binary.right);
+
+    switch (operator.type) {
+      case PLUS:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs + (double) rhs;
+          }
+          return Interpreter.addition(operator, lhs, rhs);
+        };
+      case MINUS:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs - (double) rhs;
+          }
+          return Interpreter.binary(operator, lhs, rhs);
+        };
+      case STAR:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs * (double) rhs;
+          }
+          return Interpreter.binary(operator, lhs, rhs);
+        };
+      case GREATER:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs > (double) rhs;
+          }
+          return Interpreter.binary(operator, lhs, rhs);
+        };
+      case GREATER_EQUAL:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs >= (double) rhs;
+          }
+          return Interpreter.binary(operator, lhs, rhs);
+        };
+      case LESS:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs < (double) rhs;
+          }
+          return Interpreter.binary(operator, lhs, rhs);
+        };
+      case LESS_EQUAL:
+        return stack -> {
+          Object lhs = left.eval(stack);
+          Object rhs = right.eval(stack);
+          if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs <= (double) rhs;
+          }
+          return Interpreter.binary(operator, lhs, rhs);
+        };
+      case EQUAL_EQUAL:
+        return stack -> Interpreter.isEqual(left.eval(stack), right.eval(stack));
+      case BANG_EQUAL:
+        return stack -> !Interpreter.isEqual(left.eval(stack), right.eval(stack));
+      default:
+        return stack -> Interpreter.binary(operator, left.eval(stack), right.eval(stack));
+    }
+  }
+
+  @Override
+  public Eval visitUnaryExpr(Unary unary) {
+    Token operator = unary.operator;
+    Eval right = compile(unary.right);
+
+    switch (operator.type) {
+      case BANG:
+        return stack -> !Interpreter.isTruthy(right.eval(stack));
+      case MINUS:
+        return stack -> {
+          Object operand = right.eval(stack);
+          if (operand instanceof Double) {
+            return -(double) operand;
+          }
+          return Interpreter.unary(operator, operand);
+        };
+      default:
+        return stack -> Interpreter.unary(operator, right.eval(stack));
+    }
+  }
+
+  @Override
+  public Eval visitCallExpr(Call call) {
+    Token paren = call.paren;
+    Eval[] args = new Eval[call.args.size()];
+    for (int i = 0; i < args.length; ++i) {
+      args[i] = compile(call.args.get(i));
+    }
+
+    if (call.callee instanceof Get) {
+      return compileInvoke(paren, (Get) call.callee, args);
+    }
+
+    Eval callee = compile(call.callee);
+    return stack -> callValue(stack, paren, callee.eval(stack), args);
+  }
+
+  @Override
+  public Eval visitInvariantExpr(Invariant invariant) {
+    int depth = invariant.depth;
+    int slot = invariant.slot;
+    Eval expr = compile(invariant.expr);
+
+    return stack -> {
+      Object value = stack.getAt(depth, slot);
+      if (value == null) {
+        value = expr.eval(stack);
+        stack.assignAt(depth, slot, value);
+      }
+      return value;
+    };
+  }
+
+  // obj.method(...) passes obj straight into the method's frame instead of binding it first
+  private Eval compileInvoke(Token paren, Get get, Eval[] args) {
+    Token name = get.name;
+    Eval object = compile(get.object);
+    PropertyCache cache = new PropertyCache();
+
+    return stack -> {
+      Object receiver = object.eval(stack);
+
+      if (!(receiver instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only class instances have properties.");
+      }
+
+      LoxInstance instance = (LoxInstance) receiver;
+      LoxMethod method = cache.method(instance, name);
+      if (!(method instanceof ClosureFunction)) {
+        return callValue(stack, paren, cache.get(instance, name), args);
+      }
+      return callFunction(stack, paren, (ClosureFunction) method, instance, args);
+    };
+  }
+
+  private static Object callValue(ValueStack stack, Token paren, Object function, Eval[] args) {
+    if (function instanceof ClosureFunction) {
+      ClosureFunction closure = (ClosureFunction) function;
+      return callFunction(stack, paren, closure, closure.receiver, args);
+    }
+    if (function instanceof LoxClass
+        && ((LoxClass) function).initializer instanceof ClosureFunction) {
+      LoxClass xlass = (LoxClass) function;
+      ClosureFunction initializer = (ClosureFunction) xlass.initializer;
+      return callFunction(stack, paren, initializer, new LoxInstance(xlass), args);
+    }
+
+    // Checked once the arguments are evaluated, as their effects happen even when it fails
+    Object[] values = new Object[args.length];
+    for (int i = 0; i < args.length; ++i) {
+      values[i] = args[i].eval(stack);
+    }
+    if (!(function instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    LoxCallable callable = (LoxCallable) function;
+    checkArity(paren, callable, values.length);
+    return callable.call(null, values);
+  }
+
+  // The arguments are evaluated straight into the callee's frame, after self for a method
+  private static Object callFunction(
+      ValueStack stack, Token paren, ClosureFunction function, LoxInstance self, Eval[] args) {
+    int base = stack.sp;
+    if (self != null) {
+      stack.push(self);
+    }
+    for (Eval arg : args) {
+      stack.push(arg.eval(stack));
+    }
+    checkArity(paren, function, args.length);
+
+    return function.run(self, base);
+  }
+
+  private static void checkArity(Token paren, LoxCallable callable, int argCount) {
+    if (callable.arity() != argCount) {
+      throw new RuntimeError(
+          paren, String.format("Expected %s arguments but got %s.", callable.arity(), argCount));
+    }
+  }
+
+  @Override
+  public Eval visitInlinedExpr(Inlined inlined) {
+    Token declaration = inlined.declaration;
+    Token paren = inlined.call.paren;
+    Eval callee = compile(inlined.call.callee);
+    Eval body = compile(inlined.body);
+    Eval[] args = new Eval[inlined.call.args.size()];
+    for (int i = 0; i < args.length; ++i) {
+      args[i] = compile(inlined.call.args.get(i));
+    }
+
+    return stack -> {
+      Object function = callee.eval(stack);
+      if (function instanceof ClosureFunction
+          && ((ClosureFunction) function).isDeclaredBy(declaration)) {
+        return body.eval(stack);
+      }
+      return callValue(stack, paren, function, args);
+    };
+  }
+
+  @Override
+  public Eval visitGetExpr(Get get) {
+    Token name = get.name;
+    Eval object = compile(get.object);
+    PropertyCache cache = new PropertyCache();
+
+    return stack -> {
+      Object receiver = object.eval(stack);
+
+      if (receiver instanceof LoxInstance) {
+        return cache.get((LoxInstance) receiver, name);
+      }
+
+      throw new RuntimeError(name, "Only class instances have properties.");
+    };
+  }
+
+  @Override
+  public Eval visitSetExpr(Set set) {
+    Token name = set.name;
+    Eval object = compile(set.object);
+    Eval value = compile(set.value);
+    PropertyCache cache = new PropertyCache();
+
+    return stack -> {
+      Object receiver = object.eval(stack);
+
+      if (!(receiver instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only class instance have properties.");
+      }
+
+      Object res = value.eval(stack);
+      cache.set((LoxInstance) receiver, name, res);
+
+      return res;
+    };
+  }
+
+  @Override
+  public Eval visitSuperrExpr(Superr superr) {
+    int depth = superr.depth;
+    int slot = superr.slot;
+    int thisDepth = superr.thisDepth;
+    int thisSlot = superr.thisSlot;
+    Token method = superr.method;
+
+    return stack -> {
+      LoxClass superClass = (LoxClass) stack.getAt(depth, slot);
+      LoxInstance object = (LoxInstance) stack.getAt(thisDepth, thisSlot);
+      LoxMethod found = superClass.findMethod(method.lexeme);
+
+      if (found == null) {
+        throw new RuntimeError(
+            method, String.format("Undefinded property '%s'.", method.lexeme));
+      }
+
+      return found.bind(object);
+    };
+  }
+}
@@ -0,0 +1,125 @@
+package com.iind.lox;
+
+import java.util.List;
+
+public class ClosureFunction implements LoxMethod {
+  // Compiled body of one declaration, shared by every closure created from it
+  static class Code {
+    final Token name;
+    final int arity;
+    final int[] boxedSlots;
+    final int[] captureDepths;
+    final int[] captureSlots;
+    final ClosureCompiler.Exec[] body;
+    final ValueStack stack;
+
+    Code(Stmt.Function decl, ClosureCompiler.Exec[] body, ValueStack stack) {
+      this.name = decl.name;
+      this.arity = decl.params.size();
+      this.boxedSlots = decl.boxedSlots;
+      this.captureDepths = decl.captureDepths;
+      this.captureSlots = decl.captureSlots;
+      this.body = body;
+      this.stack = stack;
+    }
+
+    // A class with a super class declares its methods in a scope holding it, one frame in
+    // front of the current one
+    ClosureFunction newFunction(Object[] scope, boolean isInitializer) {
+      Object[] closure = null;
+      if (captureDepths.length > 0) {
+        closure = new Object[captureDepths.length];
+        for (int i = 0; i < closure.length; ++i) {
+          int depth = captureDepths[i];
+          int slot = captureSlots[i];
+          if (scope == null) {
+            closure[i] = stack.getAt(depth, slot);
+          } else {
+            closure[i] = depth == 0 ? scope[slot] : stack.getAt(depth - 1, slot);
+          }
+        }
+      }
+      return new ClosureFunction(this, closure, isInitializer);
+    }
+  }
+
+  private final Code code;
+  // Only what the function captured, not the frames it was declared in
+  private final Object[] closure;
+  private final boolean isInitializer;
+  final LoxInstance receiver;
+
+  ClosureFunction(Code code, Object[] closure, boolean isInitializer) {
+    this(code, closure, isInitializer, null);
+  }
+
+  private ClosureFunction(
+      Code code, Object[] closure, boolean isInitializer, LoxInstance receiver) {
+    this.code = code;
+    this.closure = closure;
+    this.isInitializer = isInitializer;
+    this.receiver = receiver;
+  }
+
+  @Override
+  public ClosureFunction bind(LoxInstance instance) {
+    return new ClosureFunction(code, closure, isInitializer, instance);
+  }
+
+  boolean isDeclaredBy(Token name) {
+    return code.name == name;
+  }
+
+  @Override
+  public int arity() {
+    return code.arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> args) {
+    return call(interpreter, args.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] args) {
+    ValueStack stack = code.stack;
+    int base = stack.sp;
+    if (receiver != null) {
+      stack.push(receiver);
+    }
+    for (Object arg : args) {
+      stack.push(arg);
+    }
+    return run(receiver, base);
+  }
+
+  // Runs the body in the frame starting at base, which holds self and the arguments
+  Object run(LoxInstance self, int base) {
+    ValueStack stack = code.stack;
+    int prevFp = stack.fp;
+    Object[] prevCaptured = stack.captured;
+    stack.fp = base;
+    stack.captured = closure;
+    for (int slot : code.boxedSlots) {
+      stack.values[base + slot] = new Environment.Box(stack.values[base + slot]);
+    }
+
+    Object res = null;
+    for (ClosureCompiler.Exec statement : code.body) {
+      if (statement.exec(stack) == Interpreter.Completion.RETURN) {
+        res = stack.takeReturnValue();
+        break;
+      }
+    }
+
+    stack.popTo(base);
+    stack.fp = prevFp;
+    stack.captured = prevCaptured;
+    return isInitializer ? self : res;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<fn %s>", code.name.lexeme);
+  }
+}
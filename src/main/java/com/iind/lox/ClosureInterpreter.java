@@ -0,0 +1,26 @@
+package com.iind.lox;
+
+import java.util.List;
+
+// Runs programs compiled into lambdas by ClosureCompiler
+public class ClosureInterpreter {
+  private final Globals globals = new Globals();
+  private final ValueStack stack = new ValueStack();
+
+  ClosureInterpreter() {
+    Natives.define(globals);
+  }
+
+  void interpret(List<Stmt> statements) {
+    ClosureCompiler.Exec[] code = new ClosureCompiler(globals, stack).compile(statements);
+
+    try {
+      for (ClosureCompiler.Exec statement : code) {
+        statement.exec(stack);
+      }
+    } catch (RuntimeError e) {
+      Lox.runtimeError(e);
+      stack.reset();
+    }
+  }
+}
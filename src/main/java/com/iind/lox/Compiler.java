@@ -0,0 +1,738 @@
+package com.iind.lox;
+
+import com.iind.lox.Expr.Assignment;
+import com.iind.lox.Expr.Binary;
+import com.iind.lox.Expr.Block;
+import com.iind.lox.Expr.Call;
+import com.iind.lox.Expr.Get;
+import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
+import com.iind.lox.Expr.Literal;
+import com.iind.lox.Expr.Logical;
+import com.iind.lox.Expr.Set;
+import com.iind.lox.Expr.Superr;
+import com.iind.lox.Expr.Ternary;
+import com.iind.lox.Expr.Thiss;
+import com.iind.lox.Expr.Unary;
+import com.iind.lox.Expr.Variable;
+import com.iind.lox.Stmt.ClassDecl;
+import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
+import com.iind.lox.Stmt.Function;
+import com.iind.lox.Stmt.IfControl;
+import com.iind.lox.Stmt.Print;
+import com.iind.lox.Stmt.ReturnControl;
+import com.iind.lox.Stmt.Var;
+import com.iind.lox.Stmt.WhileControl;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles a resolved AST into bytecode for the VM. Locals live in stack slots and variables
+// captured by closures are reached through upvalues, the same layout clox uses.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final int MAX_SLOTS = 256;
+  // Locals and upvalues past the first 256 take the wide instructions with u16 operands
+  private static final int MAX_LOCALS = 1 << 16;
+
+  private enum FunctionType {
+    SCRIPT,
+    FUNCTION,
+    METHOD,
+    INITIALIZER
+  }
+
+  private static class Local {
+    final String name;
+    final int depth;
+    boolean captured;
+
+    Local(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private static class UpvalueRef {
+    final int index;
+    final boolean isLocal;
+
+    UpvalueRef(int index, boolean isLocal) {
+      this.index = index;
+      this.isLocal = isLocal;
+    }
+  }
+
+  private static class FunctionState {
+    final FunctionState enclosing;
+    final VMFunction function;
+    final FunctionType type;
+    final List<Local> locals = new ArrayList<>();
+    final List<UpvalueRef> upvalues = new ArrayList<>();
+    int scopeDepth;
+
+    FunctionState(FunctionState enclosing, VMFunction function, FunctionType type) {
+      this.enclosing = enclosing;
+      this.function = function;
+      this.type = type;
+
+      // Slot 0 holds the callee, or the receiver for methods
+      boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+      locals.add(new Local(isMethod ? "this" : "", 0));
+    }
+  }
+
+  private final Globals globals;
+  private FunctionState current;
+  private int line = 1;
+
+  Compiler(Globals globals) {
+    this.globals = globals;
+  }
+
+  VMFunction compile(List<Stmt> statements) {
+    current = new FunctionState(null, new VMFunction(null, 0), FunctionType.SCRIPT);
+
+    for (Stmt statement : statements) {
+      compile(statement);
+    }
+    emitReturn();
+
+    return current.function;
+  }
+
+  // Statement visit methods
+  @Override
+  public Void visitExpressionStmt(Expression expression) {
+    compile(expression.expr);
+    emit(OpCode.POP);
+
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Print print) {
+    compile(print.expr);
+    emit(OpCode.PRINT);
+
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Var var) {
+    line = var.name.line;
+    if (var.initializer != null) {
+      compile(var.initializer);
+    } else {
+      emit(OpCode.NIL);
+    }
+    defineVariable(var.name);
+
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Function fun) {
+    line = fun.name.line;
+    if (current.scopeDepth > 0) {
+      // Declared before the body is compiled so the function can refer to itself
+      addLocal(fun.name.lexeme);
+      function(fun, FunctionType.FUNCTION);
+    } else {
+      function(fun, FunctionType.FUNCTION);
+      emitShortOp(OpCode.DEFINE_GLOBAL, globalSlot(fun.name));
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitClassDeclStmt(ClassDecl classDecl) {
+    line = classDecl.name.line;
+    int name = makeConstant(classDecl.name);
+
+    int classSlot = -1;
+    if (current.scopeDepth > 0) {
+      emit(OpCode.NIL);
+      addLocal(classDecl.name.lexeme);
+      classSlot = current.locals.size() - 1;
+    }
+
+    boolean hasSuperClass = classDecl.superClass != null;
+    if (hasSuperClass) {
+      compile(classDecl.superClass);
+      beginScope();
+      addLocal("super");
+      emitSlotOp(OpCode.GET_LOCAL, OpCode.GET_LOCAL_LONG, current.locals.size() - 1);
+    } else {
+      emit(OpCode.NIL);
+    }
+
+    if (classDecl.methods.size() > 0xffff) {
+      Lox.error(classDecl.name, "Too many methods in class.");
+    }
+    for (Function method : classDecl.methods) {
+      function(
+          method,
+          "init".equals(method.name.lexeme) ? FunctionType.INITIALIZER : FunctionType.METHOD);
+    }
+
+    line = classDecl.name.line;
+    emitMediumOp(OpCode.CLASS, name);
+    chunk().writeShort(classDecl.methods.size(), line);
+    emit((byte) (hasSuperClass ? 1 : 0));
+
+    if (classSlot >= 0) {
+      emitSlotOp(OpCode.SET_LOCAL, OpCode.SET_LOCAL_LONG, classSlot);
+      emit(OpCode.POP);
+    } else {
+      emitShortOp(OpCode.DEFINE_GLOBAL, globalSlot(classDecl.name));
+    }
+
+    if (hasSuperClass) {
+      endScope();
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block block) {
+    beginScope();
+    for (Stmt statement : block.statements) {
+      compile(statement);
+    }
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfControlStmt(IfControl ifControl) {
+    compile(ifControl.cond);
+
+    int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(ifControl.thenBranch);
+
+    int elseJump = emitJump(OpCode.JUMP);
+    patchJump(thenJump);
+    emit(OpCode.POP);
+
+    if (ifControl.elseBranch != null) {
+      compile(ifControl.elseBranch);
+    }
+    patchJump(elseJump);
+
+    return null;
+  }
+
+  @Override
+  public Void visitWhileControlStmt(WhileControl whileControl) {
+    int loopStart = chunk().count;
+    compile(whileControl.cond);
+
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(whileControl.body);
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emit(OpCode.POP);
+
+    return null;
+  }
+
+  @Override
+  public Void visitForControlStmt(ForControl forControl) {
+    beginScope();
+    if (forControl.initializer != null) {
+      compile(forControl.initializer);
+    }
+
+    int loopStart = chunk().count;
+    compile(forControl.cond);
+
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(forControl.body);
+    if (forControl.increment != null) {
+      compile(forControl.increment);
+      emit(OpCode.POP);
+    }
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emit(OpCode.POP);
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnControlStmt(ReturnControl returnControl) {
+    line = returnControl.keyword.line;
+    if (returnControl.res == null) {
+      emitReturn();
+    } else {
+      compile(returnControl.res);
+      emit(OpCode.RETURN);
+    }
+
+    return null;
+  }
+
+  // Expression visit methods
+  @Override
+  public Void visitBlockExpr(Block block) {
+    compile(block.expr);
+    compile(block.right);
+    emit(OpCode.POP);
+
+    return null;
+  }
+
+  @Override
+  public Void visitAssignmentExpr(Assignment assignment) {
+    compile(assignment.value);
+    line = assignment.name.line;
+    namedVariable(assignment.name, true);
+
+    return null;
+  }
+
+  @Override
+  public Void visitTernaryExpr(Ternary ternary) {
+    compile(ternary.cond);
+
+    int falseJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(ternary.exprTrue);
+
+    int endJump = emitJump(OpCode.JUMP);
+    patchJump(falseJump);
+    emit(OpCode.POP);
+    compile(ternary.exprFalse);
+    patchJump(endJump);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Logical logical) {
+    compile(logical.left);
+
+    if (logical.operator.type == TokenType.OR) {
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      int endJump = emitJump(OpCode.JUMP);
+
+      patchJump(elseJump);
+      emit(OpCode.POP);
+      compile(logical.right);
+      patchJump(endJump);
+    } else {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+      emit(OpCode.POP);
+      compile(logical.right);
+      patchJump(endJump);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Binary binary) {
+    compile(binary.left);
+    compile(binary.right);
+
+    line = binary.operator.line;
+    switch (binary.operator.type) {
+      case MINUS:
+        emit(OpCode.SUBTRACT);
+        break;
+      case PLUS:
+        emit(OpCode.ADD);
+        break;
+      case STAR:
+        emit(OpCode.MULTIPLY);
+        break;
+      case SLASH:
+        emit(OpCode.DIVIDE);
+        break;
+      case BANG_EQUAL:
+        emit(OpCode.NOT_EQUAL);
+        break;
+      case EQUAL_EQUAL:
+        emit(OpCode.EQUAL);
+        break;
+      case GREATER:
+        emit(OpCode.GREATER);
+        break;
+      case GREATER_EQUAL:
+        emit(OpCode.GREATER_EQUAL);
+        break;
+      case LESS:
+        emit(OpCode.LESS);
+        break;
+      case LESS_EQUAL:
+        emit(OpCode.LESS_EQUAL);
+        break;
+      default:
+        emit(OpCode.POP);
+        emit(OpCode.POP);
+        emit(OpCode.NIL);
+        break;
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Unary unary) {
+    compile(unary.right);
+
+    line = unary.operator.line;
+    switch (unary.operator.type) {
+      case MINUS:
+        emit(OpCode.NEGATE);
+        break;
+      case BANG:
+        emit(OpCode.NOT);
+        break;
+      default:
+        emit(OpCode.POP);
+        emit(OpCode.NIL);
+        break;
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Grouping grouping) {
+    compile(grouping.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Literal literal) {
+    if (literal.value == null) {
+      emit(OpCode.NIL);
+    } else if (Boolean.TRUE.equals(literal.value)) {
+      emit(OpCode.TRUE);
+    } else if (Boolean.FALSE.equals(literal.value)) {
+      emit(OpCode.FALSE);
+    } else {
+      int constant = makeConstant(literal.value);
+      if (constant > 0xffff) {
+        emitMediumOp(OpCode.CONSTANT_LONG, constant);
+      } else {
+        emitShortOp(OpCode.CONSTANT, constant);
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Variable variable) {
+    line = variable.name.line;
+    namedVariable(variable.name, false);
+
+    return null;
+  }
+
+  // The VM keeps the original call, its calls are cheap enough
+  @Override
+  public Void visitInlinedExpr(Inlined inlined) {
+    compile(inlined.call);
+    return null;
+  }
+
+  // The VM computes hoisted operators every time, the variables declared for them stay nil
+  @Override
+  public Void visitInvariantExpr(Invariant invariant) {
+    compile(invariant.expr);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Call call) {
+    if (call.args.size() >= MAX_SLOTS) {
+      Lox.error(call.paren, "Can't have more than 255 arguments.");
+    }
+
+    // obj.method(args) skips creating a bound method when the method is invoked directly
+    if (call.callee instanceof Get) {
+      Get get = (Get) call.callee;
+      compile(get.object);
+      call.args.forEach(this::compile);
+
+      line = call.paren.line;
+      emitMediumOp(OpCode.INVOKE, makeConstant(get.name));
+      emit((byte) call.args.size());
+      return null;
+    }
+
+    compile(call.callee);
+    call.args.forEach(this::compile);
+
+    line = call.paren.line;
+    emitByteOp(OpCode.CALL, call.args.size());
+
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Get get) {
+    compile(get.object);
+    line = get.name.line;
+    emitMediumOp(OpCode.GET_PROPERTY, makeConstant(get.name));
+
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Set set) {
+    compile(set.object);
+    compile(set.value);
+    line = set.name.line;
+    emitMediumOp(OpCode.SET_PROPERTY, makeConstant(set.name));
+
+    return null;
+  }
+
+  @Override
+  public Void visitThissExpr(Thiss thiss) {
+    line = thiss.keyword.line;
+    namedVariable(thiss.keyword, false);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSuperrExpr(Superr superr) {
+    line = superr.keyword.line;
+    namedVariable(new Token(TokenType.THIS, "this", null, line), false);
+    namedVariable(superr.keyword, false);
+    emitMediumOp(OpCode.GET_SUPER, makeConstant(superr.method));
+
+    return null;
+  }
+
+  // Functions and variables
+  private void function(Function decl, FunctionType type) {
+    FunctionState state =
+        new FunctionState(current, new VMFunction(decl.name.lexeme, decl.params.size()), type);
+    current = state;
+
+    beginScope();
+    for (Token param : decl.params) {
+      addLocal(param.lexeme);
+    }
+    for (Stmt statement : decl.body) {
+      compile(statement);
+    }
+    emitReturn();
+
+    current = state.enclosing;
+    state.function.upvalueCount = state.upvalues.size();
+
+    line = decl.name.line;
+    emitMediumOp(OpCode.CLOSURE, makeConstant(state.function));
+    for (UpvalueRef upvalue : state.upvalues) {
+      emit((byte) (upvalue.isLocal ? 1 : 0));
+      chunk().writeShort(upvalue.index, line);
+    }
+  }
+
+  private void defineVariable(Token name) {
+    if (current.scopeDepth > 0) {
+      addLocal(name.lexeme);
+    } else {
+      emitShortOp(OpCode.DEFINE_GLOBAL, globalSlot(name));
+    }
+  }
+
+  private void namedVariable(Token name, boolean assign) {
+    int arg = resolveLocal(current, name.lexeme);
+    if (arg != -1) {
+      if (assign) {
+        emitSlotOp(OpCode.SET_LOCAL, OpCode.SET_LOCAL_LONG, arg);
+      } else {
+        emitSlotOp(OpCode.GET_LOCAL, OpCode.GET_LOCAL_LONG, arg);
+      }
+      return;
+    }
+
+    arg = resolveUpvalue(current, name.lexeme);
+    if (arg != -1) {
+      if (assign) {
+        emitSlotOp(OpCode.SET_UPVALUE, OpCode.SET_UPVALUE_LONG, arg);
+      } else {
+        emitSlotOp(OpCode.GET_UPVALUE, OpCode.GET_UPVALUE_LONG, arg);
+      }
+      return;
+    }
+
+    emitShortOp(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, globalSlot(name));
+  }
+
+  private int resolveLocal(FunctionState state, String name) {
+    for (int i = state.locals.size() - 1; i >= 0; --i) {
+      if (name.equals(state.locals.get(i).name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int resolveUpvalue(FunctionState state, String name) {
+    if (state.enclosing == null) {
+      return -1;
+    }
+
+    int local = resolveLocal(state.enclosing, name);
+    if (local != -1) {
+      state.enclosing.locals.get(local).captured = true;
+      return addUpvalue(state, local, true);
+    }
+
+    int upvalue = resolveUpvalue(state.enclosing, name);
+    if (upvalue != -1) {
+      return addUpvalue(state, upvalue, false);
+    }
+
+    return -1;
+  }
+
+  private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+    for (int i = 0; i < state.upvalues.size(); ++i) {
+      UpvalueRef upvalue = state.upvalues.get(i);
+      if (upvalue.index == index && upvalue.isLocal == isLocal) {
+        return i;
+      }
+    }
+
+    if (state.upvalues.size() == MAX_LOCALS) {
+      Lox.error(line, "Too many closure variables in function.");
+      return 0;
+    }
+
+    state.upvalues.add(new UpvalueRef(index, isLocal));
+    return state.upvalues.size() - 1;
+  }
+
+  private void addLocal(String name) {
+    if (current.locals.size() == MAX_LOCALS) {
+      Lox.error(line, "Too many local variables in function.");
+      return;
+    }
+    current.locals.add(new Local(name, current.scopeDepth));
+  }
+
+  private void beginScope() {
+    current.scopeDepth++;
+  }
+
+  private void endScope() {
+    current.scopeDepth--;
+
+    List<Local> locals = current.locals;
+    while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+      emit(locals.get(locals.size() - 1).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+      locals.remove(locals.size() - 1);
+    }
+  }
+
+  // Bytecode emission
+  private Chunk chunk() {
+    return current.function.chunk;
+  }
+
+  private void emit(byte b) {
+    chunk().write(b, line);
+  }
+
+  private void emitByteOp(byte op, int operand) {
+    emit(op);
+    emit((byte) operand);
+  }
+
+  private void emitShortOp(byte op, int operand) {
+    emit(op);
+    chunk().writeShort(operand, line);
+  }
+
+  private void emitMediumOp(byte op, int operand) {
+    emit(op);
+    chunk().writeMedium(operand, line);
+  }
+
+  private void emitSlotOp(byte op, byte longOp, int slot) {
+    if (slot > 0xff) {
+      emitShortOp(longOp, slot);
+    } else {
+      emitByteOp(op, slot);
+    }
+  }
+
+  private void emitReturn() {
+    if (current.type == FunctionType.INITIALIZER) {
+      emitByteOp(OpCode.GET_LOCAL, 0);
+    } else {
+      emit(OpCode.NIL);
+    }
+    emit(OpCode.RETURN);
+  }
+
+  // Jump offsets are four bytes, so a jump reaches anywhere in a chunk of any size
+  private int emitJump(byte op) {
+    emit(op);
+    chunk().writeInt(0, line);
+    return chunk().count - 4;
+  }
+
+  private void patchJump(int offset) {
+    int jump = chunk().count - offset - 4;
+    byte[] code = chunk().code;
+    code[offset] = (byte) ((jump >> 24) & 0xff);
+    code[offset + 1] = (byte) ((jump >> 16) & 0xff);
+    code[offset + 2] = (byte) ((jump >> 8) & 0xff);
+    code[offset + 3] = (byte) (jump & 0xff);
+  }
+
+  private void emitLoop(int loopStart) {
+    emit(OpCode.LOOP);
+    chunk().writeInt(chunk().count - loopStart + 4, line);
+  }
+
+  private int makeConstant(Object value) {
+    int index = chunk().addConstant(value);
+    if (index > 0xffffff) {
+      Lox.error(line, "Too many constants in one chunk.");
+      return 0;
+    }
+    return index;
+  }
+
+  // Globals are numbered in the VM's table while compiling, so the VM never looks one up by name
+  private int globalSlot(Token name) {
+    int slot = globals.slot(name.lexeme);
+    if (slot > 0xffff) {
+      Lox.error(line, "Too many global variables.");
+      return 0;
+    }
+    return slot;
+  }
+
+  // Compilers
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+}
@@ -0,0 +1,210 @@
+package com.iind.lox;
+
+import com.iind.lox.Expr.Assignment;
+import com.iind.lox.Expr.Binary;
+import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Literal;
+import com.iind.lox.Expr.Logical;
+import com.iind.lox.Expr.Ternary;
+import com.iind.lox.Expr.Thiss;
+import com.iind.lox.Expr.Unary;
+import com.iind.lox.Expr.Variable;
+import com.iind.lox.Stmt.ClassDecl;
+import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
+import com.iind.lox.Stmt.Function;
+import com.iind.lox.Stmt.IfControl;
+import com.iind.lox.Stmt.Print;
+import com.iind.lox.Stmt.ReturnControl;
+import com.iind.lox.Stmt.Var;
+import com.iind.lox.Stmt.WhileControl;
+import java.util.ArrayList;
+import java.util.List;
+
+// Removes code that can not affect the program: statements following one that always returns,
+// locals nothing reads and the statements storing into them. An initializer or stored value
+// that may fail or have effects is kept as an expression statement of its own. Globals are
+// left alone, a later REPL line may still read them.
+class DeadCode implements Stmt.Visitor<Stmt> {
+  private final Resolver resolver;
+  final List<String> removed = new ArrayList<>();
+
+  DeadCode(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  List<Stmt> eliminate(List<Stmt> statements) {
+    List<Stmt> res = eliminateAll(statements);
+    if (Lox.OPTIONS.parserDebug && !removed.isEmpty()) {
+      debug();
+    }
+    return res;
+  }
+
+  private List<Stmt> eliminateAll(List<Stmt> statements) {
+    List<Stmt> res = new ArrayList<>(statements.size());
+    for (int i = 0; i < statements.size(); ++i) {
+      Stmt stmt = statements.get(i);
+      Stmt kept = eliminate(stmt);
+      if (kept != null) {
+        res.add(kept);
+      }
+
+      Token exit = returnOf(stmt);
+      if (exit != null && i + 1 < statements.size()) {
+        int unreachable = statements.size() - i - 1;
+        removed.add(
+            String.format(
+                "%d unreachable statement(s) after return [line %d]", unreachable, exit.line));
+        break;
+      }
+    }
+    return res;
+  }
+
+  // Returns null for statements removed entirely
+  private Stmt eliminate(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Stmt eliminateNested(Stmt stmt) {
+    Stmt kept = eliminate(stmt);
+    return kept != null ? kept : new Stmt.Block(new ArrayList<>());
+  }
+
+  // The return a statement always ends in, or null if it may complete normally
+  private static Token returnOf(Stmt stmt) {
+    if (stmt instanceof ReturnControl) {
+      return ((ReturnControl) stmt).keyword;
+    } else if (stmt instanceof Stmt.Block) {
+      for (Stmt statement : ((Stmt.Block) stmt).statements) {
+        Token exit = returnOf(statement);
+        if (exit != null) {
+          return exit;
+        }
+      }
+    } else if (stmt instanceof IfControl) {
+      IfControl ifControl = (IfControl) stmt;
+      Token exit = returnOf(ifControl.thenBranch);
+      if (exit != null && ifControl.elseBranch != null && returnOf(ifControl.elseBranch) != null) {
+        return exit;
+      }
+    }
+    return null;
+  }
+
+  // Expressions that can neither fail nor change anything, so not evaluating them goes unnoticed
+  private static boolean isPure(Expr expr) {
+    if (expr instanceof Literal || expr instanceof Thiss) {
+      return true;
+    } else if (expr instanceof Variable) {
+      // Reading a global fails when it is not defined
+      return ((Variable) expr).depth >= 0;
+    } else if (expr instanceof Grouping) {
+      return isPure(((Grouping) expr).expression);
+    } else if (expr instanceof Logical) {
+      return isPure(((Logical) expr).left) && isPure(((Logical) expr).right);
+    } else if (expr instanceof Ternary) {
+      Ternary ternary = (Ternary) expr;
+      return isPure(ternary.cond) && isPure(ternary.exprTrue) && isPure(ternary.exprFalse);
+    } else if (expr instanceof Unary) {
+      Unary unary = (Unary) expr;
+      return unary.operator.type == TokenType.BANG && isPure(unary.right);
+    } else if (expr instanceof Binary) {
+      Binary binary = (Binary) expr;
+      TokenType type = binary.operator.type;
+      return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL)
+          && isPure(binary.left)
+          && isPure(binary.right);
+    }
+    return false;
+  }
+
+  private void debug() {
+    System.out.println("Dead Code Removed:");
+    removed.forEach(s -> System.out.println("  " + s));
+    System.out.println();
+  }
+
+  // Statement visit methods
+  @Override
+  public Stmt visitExpressionStmt(Expression expression) {
+    if (!(expression.expr instanceof Assignment)) {
+      return expression;
+    }
+
+    Assignment assignment = (Assignment) expression.expr;
+    if (!resolver.isDeadStore(assignment)) {
+      return expression;
+    }
+
+    removed.add(
+        String.format(
+            "store to unused variable '%s' [line %d]",
+            assignment.name.lexeme, assignment.name.line));
+    return isPure(assignment.value) ? null : new Expression(assignment.value);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Print print) {
+    return print;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Var var) {
+    if (!resolver.isDeadDeclaration(var)) {
+      return var;
+    }
+
+    removed.add(String.format("unused variable '%s' [line %d]", var.name.lexeme, var.name.line));
+    if (var.initializer == null || isPure(var.initializer)) {
+      return null;
+    }
+    return new Expression(var.initializer);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block block) {
+    return new Stmt.Block(eliminateAll(block.statements));
+  }
+
+  @Override
+  public Stmt visitIfControlStmt(IfControl ifControl) {
+    Stmt thenBranch = eliminateNested(ifControl.thenBranch);
+    Stmt elseBranch = ifControl.elseBranch != null ? eliminateNested(ifControl.elseBranch) : null;
+    return new IfControl(ifControl.cond, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileControlStmt(WhileControl whileControl) {
+    return new WhileControl(whileControl.cond, eliminateNested(whileControl.body));
+  }
+
+  @Override
+  public Stmt visitForControlStmt(ForControl forControl) {
+    return new ForControl(
+        forControl.initializer,
+        forControl.cond,
+        forControl.increment,
+        eliminateNested(forControl.body));
+  }
+
+  @Override
+  public Stmt visitReturnControlStmt(ReturnControl returnControl) {
+    return returnControl;
+  }
+
+  @Override
+  public Function visitFunctionStmt(Function fun) {
+    return new Function(fun.name, fun.params, eliminateAll(fun.body));
+  }
+
+  @Override
+  public Stmt visitClassDeclStmt(ClassDecl classDecl) {
+    List<Function> methods = new ArrayList<>(classDecl.methods.size());
+    for (Function method : classDecl.methods) {
+      methods.add(visitFunctionStmt(method));
+    }
+    return new ClassDecl(classDecl.name, classDecl.superClass, methods);
+  }
+}
@@ -1,41 +1,76 @@
 package com.iind.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+// A frame of locals in the slots the Resolver assigns them, globals are kept in Globals
 public class Environment {
+  private static final int INITIAL_SLOTS = 8;
+
   final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
 
-  Environment() {
-    this.enclosing = null;
+  private Object[] slots;
+  private int count;
+
+  // Holds a local that closures capture and that can change after they copied it, so the
+  // frame and every closure share one value
+  static final class Box {
+    Object value;
+
+    Box(Object value) {
+      this.value = value;
+    }
   }
 
   Environment(Environment enclosing) {
     this.enclosing = enclosing;
+    this.slots = new Object[INITIAL_SLOTS];
   }
 
-  void define(String name, Object value) {
-    values.put(name, value);
+  private Environment(Object[] slots) {
+    this.enclosing = null;
+    this.slots = slots;
+    this.count = slots.length;
   }
 
-  Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+  // The frame of what a closure created here captures, copied out of the frames by depth and
+  // slot so the closure holds on to nothing else. Calls see it one frame out from their own.
+  Environment capture(int[] depths, int[] slots) {
+    if (depths.length == 0) {
+      return null;
     }
 
-    if (enclosing != null) {
-      return enclosing.get(name);
+    Object[] captured = new Object[depths.length];
+    for (int i = 0; i < captured.length; ++i) {
+      captured[i] = getAt(depths[i], slots[i]);
     }
+    return new Environment(captured);
+  }
+
+  void define(Object value) {
+    if (count == slots.length) {
+      slots = Arrays.copyOf(slots, count * 2);
+    }
+    slots[count++] = value;
+  }
 
-    throw new RuntimeError(name, String.format("Undefined variable '%s'.", name.lexeme));
+  int size() {
+    return count;
   }
 
-  Object getAt(Integer distance, String lexeme) {
-    return ancestor(distance).values.get(lexeme);
+  // Gives back the slots past the given size, when a scope flattened into this frame ends
+  void truncate(int size) {
+    count = size;
   }
 
-  Environment ancestor(Integer distance) {
+  Object getAt(int distance, int slot) {
+    return ancestor(distance).slots[slot];
+  }
+
+  Object getBoxedAt(int distance, int slot) {
+    return ((Box) ancestor(distance).slots[slot]).value;
+  }
+
+  Environment ancestor(int distance) {
     Environment environment = this;
     for (int i = 0; i < distance; ++i) {
       environment = environment.enclosing;
@@ -43,21 +78,18 @@ public class Environment {
     return environment;
   }
 
-  void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
-    }
+  void assignAt(int distance, int slot, Object value) {
+    ancestor(distance).slots[slot] = value;
+  }
 
-    throw new RuntimeError(name, String.format("Undefined variable '%s'", name.lexeme));
+  void assignBoxedAt(int distance, int slot, Object value) {
+    ((Box) ancestor(distance).slots[slot]).value = value;
   }
 
-  void assignAt(Integer distance, Token name, Object value) {
-    ancestor(distance).assign(name, value);
+  // Moves arguments that closures may change into boxes when a call starts
+  void box(int[] slots) {
+    for (int slot : slots) {
+      this.slots[slot] = new Box(this.slots[slot]);
+    }
   }
 }
@@ -19,6 +19,8 @@ public abstract class Expr {
     R visitSuperrExpr(Superr superr);
     R visitSetExpr(Set set);
     R visitGetExpr(Get get);
+    R visitInlinedExpr(Inlined inlined);
+    R visitInvariantExpr(Invariant invariant);
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -40,6 +42,10 @@ public abstract class Expr {
   static class Assignment extends Expr {
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
+    boolean boxed;
+    int global = -1;
 
     Assignment(Token name, Expr value) {
       this.name = name;
@@ -71,6 +77,7 @@ public abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    boolean numeric;
 
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
@@ -125,6 +132,10 @@ public abstract class Expr {
 
   static class Variable extends Expr {
     final Token name;
+    int depth = -1;
+    int slot = -1;
+    boolean boxed;
+    int global = -1;
 
     Variable(Token name) {
       this.name = name;
@@ -167,6 +178,8 @@ public abstract class Expr {
 
   static class Thiss extends Expr {
     final Token keyword;
+    int depth = -1;
+    int slot = -1;
 
     Thiss(Token keyword) {
       this.keyword = keyword;
@@ -180,6 +193,10 @@ public abstract class Expr {
   static class Superr extends Expr {
     final Token keyword;
     final Token method;
+    int depth = -1;
+    int slot = -1;
+    int thisDepth = -1;
+    int thisSlot = -1;
 
     Superr(Token keyword, Token method) {
       this.keyword = keyword;
@@ -195,6 +212,7 @@ public abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    PropertyCache cache = new PropertyCache();
 
     Set(Expr object, Token name, Expr value) {
       this.object = object;
@@ -210,6 +228,7 @@ public abstract class Expr {
   static class Get extends Expr {
     final Expr object;
     final Token name;
+    PropertyCache cache = new PropertyCache();
 
     Get(Expr object, Token name) {
       this.object = object;
@@ -221,4 +240,36 @@ public abstract class Expr {
     }
   }
 
+  static class Inlined extends Expr {
+    final Call call;
+    final Token declaration;
+    final Expr body;
+
+    Inlined(Call call, Token declaration, Expr body) {
+      this.call = call;
+      this.declaration = declaration;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInlinedExpr(this);
+    }
+  }
+
+  static class Invariant extends Expr {
+    final Expr expr;
+    final Token name;
+    int depth = -1;
+    int slot = -1;
+
+    Invariant(Expr expr, Token name) {
+      this.expr = expr;
+      this.name = name;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInvariantExpr(this);
+    }
+  }
+
 }
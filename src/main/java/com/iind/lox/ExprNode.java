@@ -0,0 +1,808 @@
+package com.iind.lox;
+
+import java.util.Arrays;
+
+// Executable expression nodes. Binary, Unary, Call and Get sites start out uninitialized and
+// rewrite themselves into a variant specialized for the values they observe, falling back to
+// a generic variant that never specializes again once a guard fails.
+abstract class ExprNode extends Node {
+  private static final Double ZERO = Double.valueOf(0);
+
+  abstract Object execute(Environment frame);
+
+  static class Literal extends ExprNode {
+    final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return value;
+    }
+  }
+
+  static class ReadLocal extends ExprNode {
+    final int depth;
+    final int slot;
+
+    ReadLocal(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return frame.getAt(depth, slot);
+    }
+  }
+
+  static class ReadGlobal extends ExprNode {
+    final Token name;
+    final Globals globals;
+    final int slot;
+
+    ReadGlobal(Token name, Globals globals) {
+      this.name = name;
+      this.globals = globals;
+      this.slot = globals.slot(name.lexeme);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return globals.get(slot, name.line);
+    }
+  }
+
+  static class WriteLocal extends ExprNode {
+    final int depth;
+    final int slot;
+    ExprNode value;
+
+    WriteLocal(int depth, int slot, ExprNode value) {
+      this.depth = depth;
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object res = value.execute(frame);
+      frame.assignAt(depth, slot, res);
+      return res;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = swap(value, oldChild, newChild);
+    }
+  }
+
+  // Local shared with the closures capturing it through a box
+  static class ReadBoxed extends ExprNode {
+    final int depth;
+    final int slot;
+
+    ReadBoxed(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return frame.getBoxedAt(depth, slot);
+    }
+  }
+
+  static class WriteBoxed extends ExprNode {
+    final int depth;
+    final int slot;
+    ExprNode value;
+
+    WriteBoxed(int depth, int slot, ExprNode value) {
+      this.depth = depth;
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object res = value.execute(frame);
+      frame.assignBoxedAt(depth, slot, res);
+      return res;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = swap(value, oldChild, newChild);
+    }
+  }
+
+  // Operator hoisted out of a loop, computed once per run of the loop into a local
+  static class Invariant extends ExprNode {
+    final int depth;
+    final int slot;
+    ExprNode expr;
+
+    Invariant(int depth, int slot, ExprNode expr) {
+      this.depth = depth;
+      this.slot = slot;
+      this.expr = adopt(expr);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object value = frame.getAt(depth, slot);
+      if (value == null) {
+        value = expr.execute(frame);
+        frame.assignAt(depth, slot, value);
+      }
+      return value;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      expr = swap(expr, oldChild, newChild);
+    }
+  }
+
+  static class WriteGlobal extends ExprNode {
+    final Token name;
+    final Globals globals;
+    final int slot;
+    ExprNode value;
+
+    WriteGlobal(Token name, Globals globals, ExprNode value) {
+      this.name = name;
+      this.globals = globals;
+      this.slot = globals.slot(name.lexeme);
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object res = value.execute(frame);
+      globals.assign(slot, res, name.line);
+      return res;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      value = swap(value, oldChild, newChild);
+    }
+  }
+
+  static class Comma extends ExprNode {
+    ExprNode left;
+    ExprNode right;
+
+    Comma(ExprNode left, ExprNode right) {
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object res = left.execute(frame);
+      right.execute(frame);
+      return res;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      left = swap(left, oldChild, newChild);
+      right = swap(right, oldChild, newChild);
+    }
+  }
+
+  static class Conditional extends ExprNode {
+    ExprNode cond;
+    ExprNode exprTrue;
+    ExprNode exprFalse;
+
+    Conditional(ExprNode cond, ExprNode exprTrue, ExprNode exprFalse) {
+      this.cond = adopt(cond);
+      this.exprTrue = adopt(exprTrue);
+      this.exprFalse = adopt(exprFalse);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      return Interpreter.isTruthy(cond.execute(frame))
+          ? exprTrue.execute(frame)
+          : exprFalse.execute(frame);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      cond = swap(cond, oldChild, newChild);
+      exprTrue = swap(exprTrue, oldChild, newChild);
+      exprFalse = swap(exprFalse, oldChild, newChild);
+    }
+  }
+
+  static class Logical extends ExprNode {
+    final boolean isOr;
+    ExprNode left;
+    ExprNode right;
+
+    Logical(boolean isOr, ExprNode left, ExprNode right) {
+      this.isOr = isOr;
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object lhs = left.execute(frame);
+      if (Interpreter.isTruthy(lhs) == isOr) {
+        return lhs;
+      }
+      return right.execute(frame);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      left = swap(left, oldChild, newChild);
+      right = swap(right, oldChild, newChild);
+    }
+  }
+
+  // Binary operators
+  abstract static class Binary extends ExprNode {
+    final Token operator;
+    ExprNode left;
+    ExprNode right;
+
+    Binary(Token operator, ExprNode left, ExprNode right) {
+      this.operator = operator;
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    final Object execute(Environment frame) {
+      Object lhs = left.execute(frame);
+      Object rhs = right.execute(frame);
+      return executeWith(lhs, rhs);
+    }
+
+    abstract Object executeWith(Object lhs, Object rhs);
+
+    Object generalize(Object lhs, Object rhs) {
+      if (isReplaced()) {
+        return Interpreter.binary(operator, lhs, rhs);
+      }
+      return replace(new GenericBinary(operator, left, right)).executeWith(lhs, rhs);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      left = swap(left, oldChild, newChild);
+      right = swap(right, oldChild, newChild);
+    }
+  }
+
+  static class UninitializedBinary extends Binary {
+    UninitializedBinary(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (isReplaced()) {
+        return Interpreter.binary(operator, lhs, rhs);
+      }
+      return replace(specialize(lhs, rhs)).executeWith(lhs, rhs);
+    }
+
+    private Binary specialize(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        switch (operator.type) {
+          case PLUS:
+            return new AddDoubles(operator, left, right);
+          case MINUS:
+            return new SubtractDoubles(operator, left, right);
+          case STAR:
+            return new MultiplyDoubles(operator, left, right);
+          case SLASH:
+            return new DivideDoubles(operator, left, right);
+          case GREATER:
+            return new GreaterDoubles(operator, left, right);
+          case GREATER_EQUAL:
+            return new GreaterEqualDoubles(operator, left, right);
+          case LESS:
+            return new LessDoubles(operator, left, right);
+          case LESS_EQUAL:
+            return new LessEqualDoubles(operator, left, right);
+          default:
+            break;
+        }
+      } else if (operator.type == TokenType.PLUS && lhs instanceof String) {
+        return new Concat(operator, left, right);
+      }
+      return new GenericBinary(operator, left, right);
+    }
+  }
+
+  static class GenericBinary extends Binary {
+    GenericBinary(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      return Interpreter.binary(operator, lhs, rhs);
+    }
+  }
+
+  static class AddDoubles extends Binary {
+    AddDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs + (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class Concat extends Binary {
+    Concat(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof String) {
+        return (String) lhs + Interpreter.stringify(rhs);
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class SubtractDoubles extends Binary {
+    SubtractDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs - (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class MultiplyDoubles extends Binary {
+    MultiplyDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs * (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class DivideDoubles extends Binary {
+    DivideDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double && !ZERO.equals(rhs)) {
+        return (double) lhs / (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class GreaterDoubles extends Binary {
+    GreaterDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs > (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class GreaterEqualDoubles extends Binary {
+    GreaterEqualDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs >= (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class LessDoubles extends Binary {
+    LessDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs < (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  static class LessEqualDoubles extends Binary {
+    LessEqualDoubles(Token operator, ExprNode left, ExprNode right) {
+      super(operator, left, right);
+    }
+
+    @Override
+    Object executeWith(Object lhs, Object rhs) {
+      if (lhs instanceof Double && rhs instanceof Double) {
+        return (double) lhs <= (double) rhs;
+      }
+      return generalize(lhs, rhs);
+    }
+  }
+
+  // Unary operators
+  abstract static class Unary extends ExprNode {
+    final Token operator;
+    ExprNode right;
+
+    Unary(Token operator, ExprNode right) {
+      this.operator = operator;
+      this.right = adopt(right);
+    }
+
+    @Override
+    final Object execute(Environment frame) {
+      return executeWith(right.execute(frame));
+    }
+
+    abstract Object executeWith(Object operand);
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      right = swap(right, oldChild, newChild);
+    }
+  }
+
+  static class UninitializedUnary extends Unary {
+    UninitializedUnary(Token operator, ExprNode right) {
+      super(operator, right);
+    }
+
+    @Override
+    Object executeWith(Object operand) {
+      if (isReplaced()) {
+        return Interpreter.unary(operator, operand);
+      }
+
+      Unary specialized;
+      if (operator.type == TokenType.MINUS && operand instanceof Double) {
+        specialized = new NegateDouble(operator, right);
+      } else if (operator.type == TokenType.BANG) {
+        specialized = new Not(operator, right);
+      } else {
+        specialized = new GenericUnary(operator, right);
+      }
+      return replace(specialized).executeWith(operand);
+    }
+  }
+
+  static class GenericUnary extends Unary {
+    GenericUnary(Token operator, ExprNode right) {
+      super(operator, right);
+    }
+
+    @Override
+    Object executeWith(Object operand) {
+      return Interpreter.unary(operator, operand);
+    }
+  }
+
+  static class NegateDouble extends Unary {
+    NegateDouble(Token operator, ExprNode right) {
+      super(operator, right);
+    }
+
+    @Override
+    Object executeWith(Object operand) {
+      if (operand instanceof Double) {
+        return -(double) operand;
+      }
+      if (isReplaced()) {
+        return Interpreter.unary(operator, operand);
+      }
+      return replace(new GenericUnary(operator, right)).executeWith(operand);
+    }
+  }
+
+  static class Not extends Unary {
+    Not(Token operator, ExprNode right) {
+      super(operator, right);
+    }
+
+    @Override
+    Object executeWith(Object operand) {
+      return !Interpreter.isTruthy(operand);
+    }
+  }
+
+  // Calls
+  abstract static class Call extends ExprNode {
+    final Token paren;
+    ExprNode callee;
+    final ExprNode[] args;
+
+    Call(Token paren, ExprNode callee, ExprNode[] args) {
+      this.paren = paren;
+      this.callee = adopt(callee);
+      this.args = adopt(args);
+    }
+
+    @Override
+    final Object execute(Environment frame) {
+      Object function = callee.execute(frame);
+
+      Object[] values = new Object[args.length];
+      for (int i = 0; i < args.length; ++i) {
+        values[i] = args[i].execute(frame);
+      }
+
+      return executeWith(function, values);
+    }
+
+    abstract Object executeWith(Object function, Object[] values);
+
+    Object callGeneric(Object function, Object[] values) {
+      if (!(function instanceof LoxCallable)) {
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+      }
+
+      LoxCallable callable = (LoxCallable) function;
+      if (callable.arity() != values.length) {
+        throw new RuntimeError(
+            paren,
+            String.format("Expected %s arguments but got %s.", callable.arity(), values.length));
+      }
+
+      if (callable instanceof NodeFunction) {
+        return ((NodeFunction) callable).invoke(values);
+      }
+      return callable.call(null, values);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      callee = swap(callee, oldChild, newChild);
+      swap(args, oldChild, newChild);
+    }
+  }
+
+  static class UninitializedCall extends Call {
+    UninitializedCall(Token paren, ExprNode callee, ExprNode[] args) {
+      super(paren, callee, args);
+    }
+
+    @Override
+    Object executeWith(Object function, Object[] values) {
+      if (isReplaced()) {
+        return callGeneric(function, values);
+      }
+
+      Call specialized;
+      if (function instanceof NodeFunction
+          && ((NodeFunction) function).arity() == values.length) {
+        specialized = new DirectCall(paren, callee, args, ((NodeFunction) function).decl);
+      } else {
+        specialized = new GenericCall(paren, callee, args);
+      }
+      return replace(specialized).executeWith(function, values);
+    }
+  }
+
+  // Monomorphic call site, every closure and bound method of one declaration shares its body
+  static class DirectCall extends Call {
+    final StmtNode.Function target;
+
+    DirectCall(Token paren, ExprNode callee, ExprNode[] args, StmtNode.Function target) {
+      super(paren, callee, args);
+      this.target = target;
+    }
+
+    @Override
+    Object executeWith(Object function, Object[] values) {
+      if (function instanceof NodeFunction && ((NodeFunction) function).decl == target) {
+        return ((NodeFunction) function).invoke(values);
+      }
+      if (isReplaced()) {
+        return callGeneric(function, values);
+      }
+      return replace(new GenericCall(paren, callee, args)).executeWith(function, values);
+    }
+  }
+
+  static class GenericCall extends Call {
+    GenericCall(Token paren, ExprNode callee, ExprNode[] args) {
+      super(paren, callee, args);
+    }
+
+    @Override
+    Object executeWith(Object function, Object[] values) {
+      return callGeneric(function, values);
+    }
+  }
+
+  // Property access
+  abstract static class Get extends ExprNode {
+    final Token name;
+    ExprNode object;
+
+    Get(Token name, ExprNode object) {
+      this.name = name;
+      this.object = adopt(object);
+    }
+
+    @Override
+    final Object execute(Environment frame) {
+      return executeWith(object.execute(frame));
+    }
+
+    abstract Object executeWith(Object receiver);
+
+    Object getGeneric(Object receiver) {
+      if (receiver instanceof LoxInstance) {
+        return ((LoxInstance) receiver).get(name);
+      }
+
+      throw new RuntimeError(name, "Only class instances have properties.");
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      object = swap(object, oldChild, newChild);
+    }
+  }
+
+  static class UninitializedGet extends Get {
+    UninitializedGet(Token name, ExprNode object) {
+      super(name, object);
+    }
+
+    @Override
+    Object executeWith(Object receiver) {
+      if (isReplaced()) {
+        return getGeneric(receiver);
+      }
+
+      Get specialized = new GenericGet(name, object);
+      if (receiver instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) receiver;
+        LoxMethod method = instance.xlass.findMethod(name.lexeme);
+        if (method != null && !instance.hasField(name.lexeme)) {
+          specialized = new CachedMethodGet(name, object, instance.xlass, method);
+        }
+      }
+      return replace(specialized).executeWith(receiver);
+    }
+  }
+
+  // Remembers the method resolved for one receiver class, skipping the superclass walk
+  static class CachedMethodGet extends Get {
+    final LoxClass xlass;
+    final LoxMethod method;
+
+    CachedMethodGet(Token name, ExprNode object, LoxClass xlass, LoxMethod method) {
+      super(name, object);
+      this.xlass = xlass;
+      this.method = method;
+    }
+
+    @Override
+    Object executeWith(Object receiver) {
+      if (receiver instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) receiver;
+        if (instance.xlass == xlass && !instance.hasField(name.lexeme)) {
+          return method.bind(instance);
+        }
+      }
+      if (isReplaced()) {
+        return getGeneric(receiver);
+      }
+      return replace(new GenericGet(name, object)).executeWith(receiver);
+    }
+  }
+
+  static class GenericGet extends Get {
+    GenericGet(Token name, ExprNode object) {
+      super(name, object);
+    }
+
+    @Override
+    Object executeWith(Object receiver) {
+      return getGeneric(receiver);
+    }
+  }
+
+  static class Set extends ExprNode {
+    final Token name;
+    ExprNode object;
+    ExprNode value;
+
+    Set(Token name, ExprNode object, ExprNode value) {
+      this.name = name;
+      this.object = adopt(object);
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      Object receiver = object.execute(frame);
+
+      if (!(receiver instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only class instance have properties.");
+      }
+
+      Object res = value.execute(frame);
+      ((LoxInstance) receiver).set(name, res);
+
+      return res;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      object = swap(object, oldChild, newChild);
+      value = swap(value, oldChild, newChild);
+    }
+  }
+
+  static class Super extends ExprNode {
+    final int depth;
+    final int slot;
+    final int thisDepth;
+    final int thisSlot;
+    final Token method;
+
+    Super(int depth, int slot, int thisDepth, int thisSlot, Token method) {
+      this.depth = depth;
+      this.slot = slot;
+      this.thisDepth = thisDepth;
+      this.thisSlot = thisSlot;
+      this.method = method;
+    }
+
+    @Override
+    Object execute(Environment frame) {
+      LoxClass superClass = (LoxClass) frame.getAt(depth, slot);
+      LoxInstance object = (LoxInstance) frame.getAt(thisDepth, thisSlot);
+      LoxMethod found = superClass.findMethod(method.lexeme);
+
+      if (found == null) {
+        throw new RuntimeError(
+            method, String.format("Undefinded property '%s'.", method.lexeme));
+      }
+
+      return found.bind(object);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.iind.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// The global variables of an engine. Globals are late bound, so a global gets its slot by name
+// the first time it is defined or referred to and keeps it, reading as undefined until it is
+// defined. References look their slot up once.
+final class Globals {
+  private static final int INITIAL_SLOTS = 8;
+  private static final Object UNDEFINED = new Object();
+
+  private final Map<String, Integer> slots = new HashMap<>();
+  private String[] names = new String[INITIAL_SLOTS];
+  private Object[] values = new Object[INITIAL_SLOTS];
+  private int count;
+
+  void define(String name, Object value) {
+    int slot = slot(name);
+    values[slot] = value;
+  }
+
+  void define(int slot, Object value) {
+    values[slot] = value;
+  }
+
+  int slot(String name) {
+    Integer slot = slots.get(name);
+    if (slot != null) {
+      return slot;
+    }
+
+    if (count == values.length) {
+      values = Arrays.copyOf(values, count * 2);
+      names = Arrays.copyOf(names, count * 2);
+    }
+    names[count] = name;
+    values[count] = UNDEFINED;
+    slots.put(name, count);
+    return count++;
+  }
+
+  String name(int slot) {
+    return names[slot];
+  }
+
+  // The line is where the global is referred to, for the error when it is not defined
+  Object get(int slot, int line) {
+    Object value = values[slot];
+    if (value == UNDEFINED) {
+      throw new RuntimeError(
+          token(slot, line), String.format("Undefined variable '%s'.", names[slot]));
+    }
+    return value;
+  }
+
+  void assign(int slot, Object value, int line) {
+    if (values[slot] == UNDEFINED) {
+      throw new RuntimeError(
+          token(slot, line), String.format("Undefined variable '%s'", names[slot]));
+    }
+    values[slot] = value;
+  }
+
+  private Token token(int slot, int line) {
+    return new Token(TokenType.IDENTIFIER, names[slot], null, line);
+  }
+}
@@ -6,6 +6,8 @@ import com.iind.lox.Expr.Block;
 import com.iind.lox.Expr.Call;
 import com.iind.lox.Expr.Get;
 import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
 import com.iind.lox.Expr.Literal;
 import com.iind.lox.Expr.Logical;
 import com.iind.lox.Expr.Set;
@@ -16,42 +18,40 @@ import com.iind.lox.Expr.Unary;
 import com.iind.lox.Expr.Variable;
 import com.iind.lox.Stmt.ClassDecl;
 import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
 import com.iind.lox.Stmt.Function;
 import com.iind.lox.Stmt.IfControl;
 import com.iind.lox.Stmt.Print;
 import com.iind.lox.Stmt.ReturnControl;
 import com.iind.lox.Stmt.Var;
 import com.iind.lox.Stmt.WhileControl;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
 
-  final Environment globals = new Environment();
-  private Environment environment = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  // How a statement finished. A return hands its value over in returnValue, which the
+  // enclosing function call picks up once the statements in between have unwound.
+  enum Completion {
+    NORMAL,
+    RETURN
+  }
 
-  Interpreter() {
-    globals.define(
-        "clock",
-        new LoxCallable() {
-          @Override
-          public int arity() {
-            return 0;
-          }
+  final Globals globals = new Globals();
+  private Object returnValue;
 
-          @Override
-          public Object call(Interpreter interpreter, List<Object> args) {
-            return Double.valueOf(System.currentTimeMillis());
-          }
+  // Locals of the running calls, and of blocks at the top level, share one stack instead of an
+  // Environment per frame. The current frame starts at fp, which is -1 outside of any frame,
+  // where declarations define globals. Only what a closure captures is copied off the stack.
+  private Object[] stack = new Object[256];
+  private int fp = -1;
+  private int sp;
+  private Object[] captured;
 
-          @Override
-          public String toString() {
-            return "<native fn>";
-          }
-        });
+  Interpreter() {
+    Natives.define(globals);
   }
 
   void interpret(List<Stmt> statements) {
@@ -61,27 +61,54 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     } catch (RuntimeError e) {
       Lox.runtimeError(e);
+      popTo(0);
+      fp = -1;
+      captured = null;
     }
   }
 
-  private void execute(Stmt statement) {
-    statement.accept(this);
+  private Completion execute(Stmt statement) {
+    return statement.accept(this);
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  private Completion executeStatements(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (execute(statement) == Completion.RETURN) {
+        return Completion.RETURN;
+      }
+    }
+    return Completion.NORMAL;
   }
 
-  void executeBlockStmt(List<Stmt> statements, Environment environment) {
-    Environment prev = this.environment;
-    try {
-      this.environment = environment;
+  private Object takeReturnValue() {
+    Object value = returnValue;
+    returnValue = null;
+    return value;
+  }
 
-      for (Stmt statement : statements) {
-        execute(statement);
-      }
-    } finally {
-      this.environment = prev;
+  private void push(Object value) {
+    if (sp == stack.length) {
+      stack = Arrays.copyOf(stack, sp * 2);
+    }
+    stack[sp++] = value;
+  }
+
+  // Clears what is popped so the stack does not keep it alive
+  private void popTo(int top) {
+    Arrays.fill(stack, top, sp, null);
+    sp = top;
+  }
+
+  // Depth 0 is the current frame and depth 1 what the running function captured
+  private Object getAt(int depth, int slot) {
+    return depth == 0 ? stack[fp + slot] : captured[slot];
+  }
+
+  private void assignAt(int depth, int slot, Object value) {
+    if (depth == 0) {
+      stack[fp + slot] = value;
+    } else {
+      captured[slot] = value;
     }
   }
 
@@ -96,11 +123,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitAssignmentExpr(Assignment assignment) {
     Object value = evaluate(assignment.value);
 
-    Integer distance = locals.get(assignment);
-    if (distance != null) {
-      environment.assignAt(distance, assignment.name, value);
+    if (assignment.boxed) {
+      ((Environment.Box) getAt(assignment.depth, assignment.slot)).value = value;
+    } else if (assignment.depth >= 0) {
+      assignAt(assignment.depth, assignment.slot, value);
     } else {
-      globals.assign(assignment.name, value);
+      if (assignment.global < 0) {
+        assignment.global = globals.slot(assignment.name.lexeme);
+      }
+      globals.assign(assignment.global, value, assignment.name.line);
     }
 
     return value;
@@ -131,26 +162,109 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitBinaryExpr(Binary binary) {
+    switch (binary.operator.type) {
+      case GREATER:
+        return leftNumber(binary) > rightNumber(binary);
+      case GREATER_EQUAL:
+        return leftNumber(binary) >= rightNumber(binary);
+      case LESS:
+        return leftNumber(binary) < rightNumber(binary);
+      case LESS_EQUAL:
+        return leftNumber(binary) <= rightNumber(binary);
+      default:
+        break;
+    }
+
+    if (binary.numeric) {
+      return evaluateNumber(binary);
+    }
+
     Object lhs = evaluate(binary.left);
     Object rhs = evaluate(binary.right);
 
-    Object res = null;
+    return binary(binary.operator, lhs, rhs);
+  }
+
+  // Arithmetic on primitive doubles. Operands the Resolver marked as numeric are computed
+  // unboxed as well, so only the outermost result of a nested expression gets boxed.
+  private double evaluateNumber(Expr expr) {
+    if (expr instanceof Literal) {
+      return (double) ((Literal) expr).value;
+    } else if (expr instanceof Grouping) {
+      return evaluateNumber(((Grouping) expr).expression);
+    } else if (expr instanceof Unary) {
+      Unary unary = (Unary) expr;
+      if (Resolver.isNumeric(unary.right)) {
+        return -evaluateNumber(unary.right);
+      }
+      Object operand = evaluate(unary.right);
+      checkOperand(unary.operator, operand);
+      return -(double) operand;
+    }
+
+    Binary binary = (Binary) expr;
+    double lhs = leftNumber(binary);
+    double rhs = rightNumber(binary);
     switch (binary.operator.type) {
+      case PLUS:
+        return lhs + rhs;
+      case MINUS:
+        return lhs - rhs;
+      case STAR:
+        return lhs * rhs;
+      default:
+        // Double.equals tells 0.0 from -0.0, and only the former is rejected
+        if (Double.doubleToLongBits(rhs) == 0L) {
+          throw new RuntimeError(binary.operator, "Divide by 0 not allowed");
+        }
+        return lhs / rhs;
+    }
+  }
+
+  private double leftNumber(Binary binary) {
+    if (Resolver.isNumeric(binary.left)) {
+      return evaluateNumber(binary.left);
+    }
+
+    Object lhs = evaluate(binary.left);
+    if (!(lhs instanceof Double)) {
+      // Both operands are evaluated before an operand error, like on the boxed path
+      evaluate(binary.right);
+      throw new RuntimeError(binary.operator, "Operands must be numbers");
+    }
+    return (double) lhs;
+  }
+
+  private double rightNumber(Binary binary) {
+    if (Resolver.isNumeric(binary.right)) {
+      return evaluateNumber(binary.right);
+    }
+
+    Object rhs = evaluate(binary.right);
+    if (!(rhs instanceof Double)) {
+      throw new RuntimeError(binary.operator, "Operands must be numbers");
+    }
+    return (double) rhs;
+  }
+
+  static Object binary(Token operator, Object lhs, Object rhs) {
+    Object res = null;
+    switch (operator.type) {
       case MINUS:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         res = (double) lhs - (double) rhs;
         break;
       case PLUS:
-        res = addition(binary.operator, lhs, rhs);
+        res = addition(operator, lhs, rhs);
         break;
       case STAR:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         res = (double) lhs * (double) rhs;
         break;
       case SLASH:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         if (rhs.equals(Double.valueOf(0))) {
-          throw new RuntimeError(binary.operator, "Divide by 0 not allowed");
+          throw new RuntimeError(operator, "Divide by 0 not allowed");
         }
         res = (double) lhs / (double) rhs;
         break;
@@ -161,19 +275,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         res = isEqual(lhs, rhs);
         break;
       case GREATER:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         res = (double) lhs > (double) rhs;
         break;
       case GREATER_EQUAL:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         res = (double) lhs >= (double) rhs;
         break;
       case LESS:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         res = (double) lhs < (double) rhs;
         break;
       case LESS_EQUAL:
-        checkOperands(binary.operator, lhs, rhs);
+        checkOperands(operator, lhs, rhs);
         res = (double) lhs <= (double) rhs;
         break;
       default:
@@ -185,23 +299,166 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitCallExpr(Call call) {
-    Object callee = evaluate(call.callee);
+    if (call.callee instanceof Get) {
+      return invokeMethod(call, (Get) call.callee);
+    }
+    return callValue(call, evaluate(call.callee));
+  }
 
-    List<Object> args = call.args.stream().map(arg -> evaluate(arg)).collect(Collectors.toList());
+  private Object callValue(Call call, Object callee) {
+    if (callee instanceof LoxFunction) {
+      LoxFunction function = (LoxFunction) callee;
+      return callFunction(call, function, function.receiver);
+    }
+    if (callee instanceof LoxClass && ((LoxClass) callee).initializer instanceof LoxFunction) {
+      LoxClass xlass = (LoxClass) callee;
+      return callFunction(call, (LoxFunction) xlass.initializer, new LoxInstance(xlass));
+    }
 
+    List<Expr> args = call.args;
+    switch (args.size()) {
+      case 0:
+        return callable(call, callee).call0(this);
+      case 1:
+        {
+          Object arg0 = evaluate(args.get(0));
+          return callable(call, callee).call1(this, arg0);
+        }
+      case 2:
+        {
+          Object arg0 = evaluate(args.get(0));
+          Object arg1 = evaluate(args.get(1));
+          return callable(call, callee).call2(this, arg0, arg1);
+        }
+      case 3:
+        {
+          Object arg0 = evaluate(args.get(0));
+          Object arg1 = evaluate(args.get(1));
+          Object arg2 = evaluate(args.get(2));
+          return callable(call, callee).call3(this, arg0, arg1, arg2);
+        }
+      case 4:
+        {
+          Object arg0 = evaluate(args.get(0));
+          Object arg1 = evaluate(args.get(1));
+          Object arg2 = evaluate(args.get(2));
+          Object arg3 = evaluate(args.get(3));
+          return callable(call, callee).call4(this, arg0, arg1, arg2, arg3);
+        }
+      default:
+        {
+          Object[] values = new Object[args.size()];
+          for (int i = 0; i < values.length; ++i) {
+            values[i] = evaluate(args.get(i));
+          }
+          return callable(call, callee).call(this, values);
+        }
+    }
+  }
+
+  // Checked once the arguments are evaluated, as their effects happen even when the call fails
+  private static LoxCallable callable(Call call, Object callee) {
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(call.paren, "Can only call functions and classes.");
     }
 
     LoxCallable function = (LoxCallable) callee;
+    checkArity(call.paren, function, call.args.size());
+    return function;
+  }
+
+  // obj.method(...) runs the method with obj as its receiver, so no bound method is created
+  // unless the method value is used some other way
+  private Object invokeMethod(Call call, Get get) {
+    Object object = evaluate(get.object);
+
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(get.name, "Only class instances have properties.");
+    }
+
+    LoxInstance instance = (LoxInstance) object;
+    LoxMethod method = get.cache.method(instance, get.name);
+    if (!(method instanceof LoxFunction)) {
+      return callValue(call, get.cache.get(instance, get.name));
+    }
+
+    return callFunction(call, (LoxFunction) method, instance);
+  }
+
+  // The arguments are evaluated straight into the callee's frame, after self for a method
+  private Object callFunction(Call call, LoxFunction function, LoxInstance self) {
+    int base = sp;
+    if (self != null) {
+      push(self);
+    }
+    for (Expr arg : call.args) {
+      push(evaluate(arg));
+    }
+    checkArity(call.paren, function, call.args.size());
+
+    return run(function, self, base);
+  }
+
+  Object call(LoxFunction function, LoxInstance self, Object[] args) {
+    int base = sp;
+    if (self != null) {
+      push(self);
+    }
+    for (Object arg : args) {
+      push(arg);
+    }
+    return run(function, self, base);
+  }
+
+  // Runs the function in the frame starting at base, which holds its parameters
+  private Object run(LoxFunction function, LoxInstance self, int base) {
+    int prevFp = fp;
+    Object[] prevCaptured = captured;
+    fp = base;
+    captured = function.closure;
+    for (int slot : function.decl.boxedSlots) {
+      stack[base + slot] = new Environment.Box(stack[base + slot]);
+    }
+
+    Object res = null;
+    if (executeStatements(function.decl.body) == Completion.RETURN) {
+      res = takeReturnValue();
+    }
 
-    if (function.arity() != args.size()) {
+    popTo(base);
+    fp = prevFp;
+    captured = prevCaptured;
+    return function.isInitializer ? self : res;
+  }
+
+  private static void checkArity(Token paren, LoxCallable function, int argCount) {
+    if (function.arity() != argCount) {
       throw new RuntimeError(
-          call.paren,
-          String.format("Expected %s arguments but got %s.", function.arity(), args.size()));
+          paren, String.format("Expected %s arguments but got %s.", function.arity(), argCount));
     }
+  }
 
-    return function.call(this, args);
+  // A call the Optimizer replaced with the callee's body, which only stands in for the call
+  // while the name still refers to the function that body came from
+  @Override
+  public Object visitInlinedExpr(Inlined inlined) {
+    Object callee = evaluate(inlined.call.callee);
+    if (callee instanceof LoxFunction
+        && ((LoxFunction) callee).isDeclaredBy(inlined.declaration)) {
+      return evaluate(inlined.body);
+    }
+    return callValue(inlined.call, callee);
+  }
+
+  // Hoisted operators never produce nil, so nil means not computed yet in this run of the loop
+  @Override
+  public Object visitInvariantExpr(Invariant invariant) {
+    Object value = getAt(invariant.depth, invariant.slot);
+    if (value == null) {
+      value = evaluate(invariant.expr);
+      assignAt(invariant.depth, invariant.slot, value);
+    }
+    return value;
   }
 
   @Override
@@ -209,7 +466,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object object = evaluate(get.object);
 
     if (object instanceof LoxInstance) {
-      return ((LoxInstance) object).get(get.name);
+      return get.cache.get((LoxInstance) object, get.name);
     }
 
     throw new RuntimeError(get.name, "Only class instances have properties.");
@@ -224,22 +481,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     Object value = evaluate(set.value);
-    ((LoxInstance) object).set(set.name, value);
+    set.cache.set((LoxInstance) object, set.name, value);
 
     return value;
   }
 
   @Override
   public Object visitThissExpr(Thiss thiss) {
-    return lookupVariable(thiss.keyword, thiss);
+    return getAt(thiss.depth, thiss.slot);
   }
 
   @Override
   public Object visitSuperrExpr(Superr superr) {
-    int distance = locals.get(superr);
-    LoxClass superClass = (LoxClass) environment.getAt(distance, "super");
-    LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
-    LoxFunction method = superClass.findMethod(superr.method.lexeme);
+    LoxClass superClass = (LoxClass) getAt(superr.depth, superr.slot);
+    LoxInstance object = (LoxInstance) getAt(superr.thisDepth, superr.thisSlot);
+    LoxMethod method = superClass.findMethod(superr.method.lexeme);
 
     if (method == null) {
       throw new RuntimeError(
@@ -256,16 +512,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Variable variable) {
-    return lookupVariable(variable.name, variable);
-  }
+    if (variable.boxed) {
+      return ((Environment.Box) getAt(variable.depth, variable.slot)).value;
+    } else if (variable.depth >= 0) {
+      return getAt(variable.depth, variable.slot);
+    }
 
-  private Object lookupVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
-    } else {
-      return globals.get(name);
+    // The slot found on first use stays valid, globals are never removed
+    if (variable.global < 0) {
+      variable.global = globals.slot(variable.name.lexeme);
     }
+    return globals.get(variable.global, variable.name.line);
   }
 
   @Override
@@ -275,10 +532,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitUnaryExpr(Unary unary) {
-    Object res = evaluate(unary.right);
-    switch (unary.operator.type) {
+    return unary(unary.operator, evaluate(unary.right));
+  }
+
+  static Object unary(Token operator, Object res) {
+    switch (operator.type) {
       case MINUS:
-        checkOperand(unary.operator, res);
+        checkOperand(operator, res);
         res = -(double) res;
         break;
       case BANG:
@@ -292,66 +552,96 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   @Override
-  public Void visitExpressionStmt(Expression expression) {
+  public Completion visitExpressionStmt(Expression expression) {
     evaluate(expression.expr);
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitIfControlStmt(IfControl ifControl) {
+  public Completion visitIfControlStmt(IfControl ifControl) {
     if (isTruthy(evaluate(ifControl.cond))) {
-      execute(ifControl.thenBranch);
+      return execute(ifControl.thenBranch);
     } else if (ifControl.elseBranch != null) {
-      execute(ifControl.elseBranch);
+      return execute(ifControl.elseBranch);
     }
 
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitPrintStmt(Print print) {
+  public Completion visitPrintStmt(Print print) {
     Object value = evaluate(print.expr);
 
     if (!Lox.OPTIONS.silentMode) {
       System.out.println(stringify(value));
     }
 
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitReturnControlStmt(ReturnControl returnControl) {
+  public Completion visitReturnControlStmt(ReturnControl returnControl) {
     Object value = null;
 
     if (returnControl.res != null) {
       value = evaluate(returnControl.res);
     }
 
-    throw new Return(value);
+    returnValue = value;
+    return Completion.RETURN;
   }
 
   @Override
-  public Void visitWhileControlStmt(WhileControl whileControl) {
+  public Completion visitWhileControlStmt(WhileControl whileControl) {
     while (isTruthy(evaluate(whileControl.cond))) {
-      execute(whileControl.body);
+      if (execute(whileControl.body) == Completion.RETURN) {
+        return Completion.RETURN;
+      }
     }
 
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitVarStmt(Var var) {
+  public Completion visitForControlStmt(ForControl forControl) {
+    int prevFp = fp;
+    int top = sp;
+    try {
+      if (forControl.ownFrame) {
+        fp = sp;
+      }
+      if (forControl.initializer != null) {
+        execute(forControl.initializer);
+      }
+
+      while (isTruthy(evaluate(forControl.cond))) {
+        if (execute(forControl.body) == Completion.RETURN) {
+          return Completion.RETURN;
+        }
+        if (forControl.increment != null) {
+          evaluate(forControl.increment);
+        }
+      }
+      return Completion.NORMAL;
+    } finally {
+      popTo(top);
+      fp = prevFp;
+    }
+  }
+
+  @Override
+  public Completion visitVarStmt(Var var) {
     Object value = null;
     if (var.initializer != null) {
       value = evaluate(var.initializer);
     }
-    environment.define(var.name.lexeme, value);
+    define(var.name, var.boxed ? new Environment.Box(value) : value);
 
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitClassDeclStmt(ClassDecl classDecl) {
+  public Completion visitClassDeclStmt(ClassDecl classDecl) {
     Object superClass = null;
     if (classDecl.superClass != null) {
       superClass = evaluate(classDecl.superClass);
@@ -360,57 +650,101 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(classDecl.name.lexeme, null);
-
-    if (classDecl.superClass != null) {
-      environment = new Environment(environment);
-      environment.define("super", superClass);
+    // Methods that capture the class's own name need its box before they exist
+    Environment.Box box = null;
+    if (classDecl.boxed) {
+      box = new Environment.Box(null);
+      push(box);
     }
 
-    Map<String, LoxFunction> methods = new HashMap<>();
+    Object[] scope = classDecl.superClass != null ? new Object[] {superClass} : null;
+
+    Map<String, LoxMethod> methods = new HashMap<>();
     for (Function method : classDecl.methods) {
-      LoxFunction func = new LoxFunction(method, environment, "init".equals(method.name.lexeme));
+      LoxFunction func = newFunction(method, scope, "init".equals(method.name.lexeme));
       methods.put(method.name.lexeme, func);
     }
 
     LoxClass xlass = new LoxClass(classDecl.name.lexeme, (LoxClass) superClass, methods);
 
-    if (classDecl.superClass != null) {
-      environment = environment.enclosing;
+    if (box != null) {
+      box.value = xlass;
+    } else {
+      define(classDecl.name, xlass);
     }
 
-    environment.assign(classDecl.name, xlass);
-
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitFunctionStmt(Function fun) {
-    environment.define(fun.name.lexeme, new LoxFunction(fun, environment, false));
-    return null;
+  public Completion visitFunctionStmt(Function fun) {
+    // A function calling itself captures its own name, which needs its box before it exists
+    if (fun.boxed) {
+      Environment.Box box = new Environment.Box(null);
+      push(box);
+      box.value = newFunction(fun, null, false);
+    } else {
+      define(fun.name, newFunction(fun, null, false));
+    }
+    return Completion.NORMAL;
+  }
+
+  // A class with a super class declares its methods in a scope holding it, one frame in front
+  // of the current one
+  private LoxFunction newFunction(Function fun, Object[] scope, boolean isInitializer) {
+    Object[] closure = null;
+    if (fun.captureDepths.length > 0) {
+      closure = new Object[fun.captureDepths.length];
+      for (int i = 0; i < closure.length; ++i) {
+        int depth = fun.captureDepths[i];
+        int slot = fun.captureSlots[i];
+        if (scope == null) {
+          closure[i] = getAt(depth, slot);
+        } else {
+          closure[i] = depth == 0 ? scope[slot] : getAt(depth - 1, slot);
+        }
+      }
+    }
+    return new LoxFunction(fun, closure, isInitializer);
   }
 
   @Override
-  public Void visitBlockStmt(Stmt.Block block) {
-    executeBlockStmt(block.statements, new Environment(environment));
-    return null;
+  public Completion visitBlockStmt(Stmt.Block block) {
+    int prevFp = fp;
+    int top = sp;
+    try {
+      if (block.ownFrame) {
+        fp = sp;
+      }
+      return executeStatements(block.statements);
+    } finally {
+      popTo(top);
+      fp = prevFp;
+    }
+  }
+
+  private void define(Token name, Object value) {
+    if (fp < 0) {
+      globals.define(name.lexeme, value);
+    } else {
+      push(value);
+    }
   }
 
   private Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
-  private Boolean isTruthy(Object obj) {
-    Boolean res = true;
+  static boolean isTruthy(Object obj) {
     if (obj == null) {
-      res = false;
+      return false;
     } else if (obj instanceof Boolean) {
-      res = (Boolean) obj;
+      return (boolean) obj;
     }
-    return res;
+    return true;
   }
 
-  private Boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     if (a == null && b == null) {
       return true;
     } else if (a == null) {
@@ -419,21 +753,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return a.equals(b);
   }
 
-  private void checkOperand(Token operator, Object operand) {
+  private static void checkOperand(Token operator, Object operand) {
     if (operand instanceof Double) {
       return;
     }
     throw new RuntimeError(operator, "Operand must be a number");
   }
 
-  private void checkOperands(Token operator, Object leftOp, Object rightOp) {
+  private static void checkOperands(Token operator, Object leftOp, Object rightOp) {
     if (leftOp instanceof Double && rightOp instanceof Double) {
       return;
     }
     throw new RuntimeError(operator, "Operands must be numbers");
   }
 
-  private Object addition(Token operator, Object lhs, Object rhs) {
+  static Object addition(Token operator, Object lhs, Object rhs) {
     Object res = null;
     if (lhs instanceof Double && rhs instanceof Double) {
       res = (double) lhs + (double) rhs;
@@ -446,16 +780,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return res;
   }
 
-  private boolean mixedStrDbl(Object lhs, Object rhs) {
+  private static boolean mixedStrDbl(Object lhs, Object rhs) {
     return (lhs instanceof String && rhs instanceof Double)
         || (lhs instanceof Double && rhs instanceof String);
   }
 
-  private boolean bothStr(Object lhs, Object rhs) {
+  private static boolean bothStr(Object lhs, Object rhs) {
     return lhs instanceof String && lhs instanceof String;
   }
 
-  private String stringify(Object obj) {
+  static String stringify(Object obj) {
     if (obj == null) {
       return "nil";
     }
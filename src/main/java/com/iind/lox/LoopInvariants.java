@@ -0,0 +1,514 @@
+package com.iind.lox;
+
+import com.iind.lox.Expr.Assignment;
+import com.iind.lox.Expr.Binary;
+import com.iind.lox.Expr.Block;
+import com.iind.lox.Expr.Call;
+import com.iind.lox.Expr.Get;
+import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
+import com.iind.lox.Expr.Literal;
+import com.iind.lox.Expr.Logical;
+import com.iind.lox.Expr.Set;
+import com.iind.lox.Expr.Superr;
+import com.iind.lox.Expr.Ternary;
+import com.iind.lox.Expr.Thiss;
+import com.iind.lox.Expr.Unary;
+import com.iind.lox.Expr.Variable;
+import com.iind.lox.Stmt.ClassDecl;
+import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
+import com.iind.lox.Stmt.Function;
+import com.iind.lox.Stmt.IfControl;
+import com.iind.lox.Stmt.Print;
+import com.iind.lox.Stmt.ReturnControl;
+import com.iind.lox.Stmt.Var;
+import com.iind.lox.Stmt.WhileControl;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+// Hoists operators whose operands the loop can not change out of a while or for loop. The loop
+// gets wrapped in a block declaring one variable per hoisted operator, and each occurrence
+// becomes an Invariant that computes the operator the first time it is reached in that run of
+// the loop and reads the variable from then on. Computing on first use rather than before the
+// loop keeps runtime errors where the program would have reported them.
+//
+// The loop is copied while looking for invariants, the Resolver runs again on the result to
+// find the frames and slots of the new variables.
+class LoopInvariants implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private final Resolver resolver;
+  private final Effects effects;
+  private final List<Stmt> declarations = new ArrayList<>();
+  // Number of the next hoisted variable
+  private int hoisted;
+  // Functions declared in the loop, whose code runs at other times
+  private int functions;
+  private boolean hoisting = true;
+
+  private LoopInvariants(Resolver resolver, Effects effects, int hoisted) {
+    this.resolver = resolver;
+    this.effects = effects;
+    this.hoisted = hoisted;
+  }
+
+  // The variables get numbers from first on, so an inner loop's never shadow an outer loop's.
+  // A loop with something hoisted comes back as a block declaring them ahead of the loop.
+  static Stmt hoist(Resolver resolver, Stmt loop, int first) {
+    Effects effects = new Effects();
+    effects.scan(loop);
+
+    LoopInvariants hoister = new LoopInvariants(resolver, effects, first);
+    Stmt res = hoister.rewrite(loop);
+    if (hoister.declarations.isEmpty()) {
+      return loop;
+    }
+
+    List<Stmt> statements = new ArrayList<>(hoister.declarations);
+    statements.add(res);
+    return new Stmt.Block(statements);
+  }
+
+  private Stmt rewrite(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr rewrite(Expr expr) {
+    if (!hoisting || functions > 0 || !isHoistable(expr)) {
+      return expr.accept(this);
+    }
+
+    hoisting = false;
+    Token name = new Token(TokenType.IDENTIFIER, "invariant " + hoisted++, null, 0);
+    Invariant res = new Invariant(expr.accept(this), name);
+    hoisting = true;
+
+    declarations.add(new Var(name, null));
+    return res;
+  }
+
+  private List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> res = new ArrayList<>(statements.size());
+    for (Stmt statement : statements) {
+      res.add(rewrite(statement));
+    }
+    return res;
+  }
+
+  // Binary and unary operators produce numbers, strings and booleans, values that compare the
+  // same whether the cached result or a new one is used
+  private boolean isHoistable(Expr expr) {
+    return (expr instanceof Binary || expr instanceof Unary) && isInvariant(expr);
+  }
+
+  private boolean isInvariant(Expr expr) {
+    if (expr instanceof Literal || expr instanceof Thiss) {
+      return true;
+    } else if (expr instanceof Variable) {
+      return isInvariant((Variable) expr);
+    } else if (expr instanceof Grouping) {
+      return isInvariant(((Grouping) expr).expression);
+    } else if (expr instanceof Unary) {
+      return isInvariant(((Unary) expr).right);
+    } else if (expr instanceof Binary) {
+      return isInvariant(((Binary) expr).left) && isInvariant(((Binary) expr).right);
+    } else if (expr instanceof Logical) {
+      return isInvariant(((Logical) expr).left) && isInvariant(((Logical) expr).right);
+    } else if (expr instanceof Ternary) {
+      Ternary ternary = (Ternary) expr;
+      return isInvariant(ternary.cond)
+          && isInvariant(ternary.exprTrue)
+          && isInvariant(ternary.exprFalse);
+    } else if (expr instanceof Get) {
+      return !effects.sets && !effects.calls && isInvariant(((Get) expr).object);
+    }
+    return false;
+  }
+
+  // Variables declared in the loop or assigned by it change, and a call can assign any global
+  // or captured local that some assignment in the program writes
+  private boolean isInvariant(Variable variable) {
+    if (effects.declared.contains(variable.name.lexeme)) {
+      return false;
+    } else if (effects.assigned.contains(variable.name.lexeme)) {
+      return false;
+    } else if (!effects.calls) {
+      return true;
+    } else if (variable.depth < 0) {
+      return !resolver.isAssignedGlobal(variable.name.lexeme);
+    }
+    return resolver.readsUnassignedLocal(variable);
+  }
+
+  // Statement visit methods
+  @Override
+  public Stmt visitExpressionStmt(Expression expression) {
+    return new Expression(rewrite(expression.expr));
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Print print) {
+    return new Print(rewrite(print.expr));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Var var) {
+    return new Var(var.name, var.initializer != null ? rewrite(var.initializer) : null);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block block) {
+    return new Stmt.Block(rewrite(block.statements));
+  }
+
+  @Override
+  public Stmt visitIfControlStmt(IfControl ifControl) {
+    Expr cond = rewrite(ifControl.cond);
+    Stmt thenBranch = rewrite(ifControl.thenBranch);
+    Stmt elseBranch = ifControl.elseBranch != null ? rewrite(ifControl.elseBranch) : null;
+    return new IfControl(cond, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileControlStmt(WhileControl whileControl) {
+    return new WhileControl(rewrite(whileControl.cond), rewrite(whileControl.body));
+  }
+
+  // The initializer runs once per run of the loop, there is nothing to gain from hoisting there
+  @Override
+  public Stmt visitForControlStmt(ForControl forControl) {
+    Stmt initializer = null;
+    if (forControl.initializer != null) {
+      boolean enclosing = hoisting;
+      hoisting = false;
+      initializer = rewrite(forControl.initializer);
+      hoisting = enclosing;
+    }
+    Expr cond = rewrite(forControl.cond);
+    Expr increment = forControl.increment != null ? rewrite(forControl.increment) : null;
+    Stmt body = rewrite(forControl.body);
+    return new ForControl(initializer, cond, increment, body);
+  }
+
+  @Override
+  public Stmt visitReturnControlStmt(ReturnControl returnControl) {
+    Expr res = returnControl.res != null ? rewrite(returnControl.res) : null;
+    return new ReturnControl(returnControl.keyword, res);
+  }
+
+  @Override
+  public Function visitFunctionStmt(Function fun) {
+    functions++;
+    List<Stmt> body = rewrite(fun.body);
+    functions--;
+    return new Function(fun.name, fun.params, body);
+  }
+
+  @Override
+  public Stmt visitClassDeclStmt(ClassDecl classDecl) {
+    List<Function> methods = new ArrayList<>(classDecl.methods.size());
+    for (Function method : classDecl.methods) {
+      methods.add(visitFunctionStmt(method));
+    }
+    return new ClassDecl(classDecl.name, classDecl.superClass, methods);
+  }
+
+  // Expression visit methods
+  @Override
+  public Expr visitBlockExpr(Block block) {
+    return new Block(rewrite(block.expr), rewrite(block.right));
+  }
+
+  @Override
+  public Expr visitAssignmentExpr(Assignment assignment) {
+    return new Assignment(assignment.name, rewrite(assignment.value));
+  }
+
+  @Override
+  public Expr visitTernaryExpr(Ternary ternary) {
+    return new Ternary(
+        rewrite(ternary.cond), rewrite(ternary.exprTrue), rewrite(ternary.exprFalse));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Binary binary) {
+    Binary res = new Binary(rewrite(binary.left), binary.operator, rewrite(binary.right));
+    res.numeric = Resolver.producesNumber(res);
+    return res;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Grouping grouping) {
+    return new Grouping(rewrite(grouping.expression));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Literal literal) {
+    return literal;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Logical logical) {
+    return new Logical(rewrite(logical.left), logical.operator, rewrite(logical.right));
+  }
+
+  @Override
+  public Expr visitVariableExpr(Variable variable) {
+    return variable;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Unary unary) {
+    return new Unary(unary.operator, rewrite(unary.right));
+  }
+
+  @Override
+  public Call visitCallExpr(Call call) {
+    List<Expr> args = new ArrayList<>(call.args.size());
+    for (Expr arg : call.args) {
+      args.add(rewrite(arg));
+    }
+    return new Call(rewrite(call.callee), call.paren, args);
+  }
+
+  @Override
+  public Expr visitInlinedExpr(Inlined inlined) {
+    // The body shares the call's arguments, which are never rewritten, and is resolved with it
+    return new Inlined(visitCallExpr(inlined.call), inlined.declaration, inlined.body);
+  }
+
+  @Override
+  public Expr visitInvariantExpr(Invariant invariant) {
+    return invariant;
+  }
+
+  @Override
+  public Expr visitGetExpr(Get get) {
+    return new Get(rewrite(get.object), get.name);
+  }
+
+  @Override
+  public Expr visitSetExpr(Set set) {
+    return new Set(rewrite(set.object), set.name, rewrite(set.value));
+  }
+
+  @Override
+  public Expr visitThissExpr(Thiss thiss) {
+    return thiss;
+  }
+
+  @Override
+  public Expr visitSuperrExpr(Superr superr) {
+    return superr;
+  }
+
+  // What running the loop can change: the variables it declares or assigns by name, including
+  // from functions declared in it, and whether it sets fields or calls anything at all
+  private static class Effects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    final java.util.Set<String> declared = new HashSet<>();
+    final java.util.Set<String> assigned = new HashSet<>();
+    boolean calls;
+    boolean sets;
+
+    void scan(Stmt stmt) {
+      stmt.accept(this);
+    }
+
+    void scan(Expr expr) {
+      expr.accept(this);
+    }
+
+    private void scanAll(List<? extends Stmt> statements) {
+      for (Stmt statement : statements) {
+        scan(statement);
+      }
+    }
+
+    // Statement visit methods
+    @Override
+    public Void visitExpressionStmt(Expression expression) {
+      scan(expression.expr);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print print) {
+      scan(print.expr);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var var) {
+      declared.add(var.name.lexeme);
+      if (var.initializer != null) {
+        scan(var.initializer);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block block) {
+      scanAll(block.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitIfControlStmt(IfControl ifControl) {
+      scan(ifControl.cond);
+      scan(ifControl.thenBranch);
+      if (ifControl.elseBranch != null) {
+        scan(ifControl.elseBranch);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitWhileControlStmt(WhileControl whileControl) {
+      scan(whileControl.cond);
+      scan(whileControl.body);
+      return null;
+    }
+
+    @Override
+    public Void visitForControlStmt(ForControl forControl) {
+      if (forControl.initializer != null) {
+        scan(forControl.initializer);
+      }
+      scan(forControl.cond);
+      if (forControl.increment != null) {
+        scan(forControl.increment);
+      }
+      scan(forControl.body);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnControlStmt(ReturnControl returnControl) {
+      if (returnControl.res != null) {
+        scan(returnControl.res);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function fun) {
+      declared.add(fun.name.lexeme);
+      fun.params.forEach(param -> declared.add(param.lexeme));
+      scanAll(fun.body);
+      return null;
+    }
+
+    @Override
+    public Void visitClassDeclStmt(ClassDecl classDecl) {
+      declared.add(classDecl.name.lexeme);
+      scanAll(classDecl.methods);
+      return null;
+    }
+
+    // Expression visit methods
+    @Override
+    public Void visitBlockExpr(Block block) {
+      scan(block.expr);
+      scan(block.right);
+      return null;
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Assignment assignment) {
+      assigned.add(assignment.name.lexeme);
+      scan(assignment.value);
+      return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Ternary ternary) {
+      scan(ternary.cond);
+      scan(ternary.exprTrue);
+      scan(ternary.exprFalse);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary binary) {
+      scan(binary.left);
+      scan(binary.right);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping grouping) {
+      scan(grouping.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal literal) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical logical) {
+      scan(logical.left);
+      scan(logical.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable variable) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary unary) {
+      scan(unary.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call call) {
+      calls = true;
+      scan(call.callee);
+      call.args.forEach(this::scan);
+      return null;
+    }
+
+    @Override
+    public Void visitInlinedExpr(Inlined inlined) {
+      // Runs the original call if the function was redefined
+      scan(inlined.call);
+      scan(inlined.body);
+      return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Invariant invariant) {
+      scan(invariant.expr);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get get) {
+      scan(get.object);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set set) {
+      sets = true;
+      scan(set.object);
+      scan(set.value);
+      return null;
+    }
+
+    @Override
+    public Void visitThissExpr(Thiss thiss) {
+      return null;
+    }
+
+    @Override
+    public Void visitSuperrExpr(Superr superr) {
+      return null;
+    }
+  }
+}
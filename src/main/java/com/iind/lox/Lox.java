@@ -3,13 +3,18 @@ package com.iind.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class Lox {
   private static final Interpreter INTERPRETER = new Interpreter();
+  private static final VM VIRTUAL_MACHINE = new VM();
+  private static final NodeInterpreter NODE_INTERPRETER = new NodeInterpreter();
+  private static final ClosureInterpreter CLOSURE_INTERPRETER = new ClosureInterpreter();
 
   static boolean hadError;
   static boolean hadRuntimeError;
@@ -30,9 +35,13 @@ public class Lox {
   }
 
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    // Mapped instead of read and decoded, the Scanner works on the UTF-8 bytes themselves
+    ByteBuffer source;
+    try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+      source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
 
-    run(new String(bytes, Charset.defaultCharset()));
+    run(new Scanner(source), new HashSet<>());
 
     if (underTest && (hadError || hadRuntimeError)) throw new RuntimeException("Test Failed.");
     if (hadError) System.exit(65);
@@ -43,6 +52,8 @@ public class Lox {
     InputStreamReader input = new InputStreamReader(System.in);
 
     BufferedReader reader = new BufferedReader(input);
+    // Shared by every line, an earlier one may define a function assigning a later global
+    Set<String> assignedGlobals = new HashSet<>();
 
     System.out.println();
     System.out.println("Welcome to the Java Lox Interpreter (Ctrl-D to exit)");
@@ -52,28 +63,47 @@ public class Lox {
 
       if (line == null) break;
 
-      run(line);
+      run(new Scanner(line), assignedGlobals);
       hadError = false;
     }
 
     System.out.println();
   }
 
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
+  static void run(Scanner scanner, Set<String> assignedGlobals) {
+    Tokens tokens = scanner.scanTokens();
 
     Parser parser = new Parser(tokens);
     List<Stmt> statements = parser.parse();
 
     if (hadError) return;
 
-    Resolver resolver = new Resolver(INTERPRETER);
+    Resolver resolver = new Resolver(assignedGlobals);
     resolver.resolve(statements);
 
     if (hadError) return;
 
-    INTERPRETER.interpret(statements);
+    if (OPTIONS.optimize) {
+      statements = new DeadCode(resolver).eliminate(statements);
+      statements = new Optimizer(resolver).optimize(statements);
+      // Frames and slots are handed out again for the code that is left
+      new Resolver(assignedGlobals).resolve(statements);
+    }
+
+    switch (OPTIONS.engine) {
+      case VM:
+        VIRTUAL_MACHINE.interpret(statements);
+        break;
+      case NODES:
+        NODE_INTERPRETER.interpret(statements);
+        break;
+      case CLOSURES:
+        CLOSURE_INTERPRETER.interpret(statements);
+        break;
+      default:
+        INTERPRETER.interpret(statements);
+        break;
+    }
   }
 
   static void error(int line, String message) {
@@ -98,11 +128,24 @@ public class Lox {
     hadError = true;
   }
 
+  enum Engine {
+    INTERPRETER,
+    VM,
+    NODES,
+    CLOSURES
+  }
+
   static class LoxInterpreterOptions {
+    private static final int DEFAULT_SCAN_CHUNK_SIZE = 1 << 20;
+
     boolean scannerDebug = false;
     boolean parserDebug = false;
     boolean interpreterDebug = false;
     boolean silentMode = false;
+    boolean optimize = true;
+    Engine engine = Engine.INTERPRETER;
+    // Sources longer than this are scanned in chunks of about this size in parallel, 0 never
+    int scanChunkSize = 0;
 
     public void collectOptions() {
       if (isOn("scannerDebug")) {
@@ -123,10 +166,35 @@ public class Lox {
       if (isOn("silent")) {
         silentMode = true;
       }
+
+      if (isOn("noOptimize")) {
+        optimize = false;
+      }
+
+      if (isOn("engine")) {
+        engine = engineOf(System.getProperty("engine"));
+      }
+
+      if (isOn("parallelScan")) {
+        String size = System.getProperty("parallelScan");
+        scanChunkSize = size.isEmpty() ? DEFAULT_SCAN_CHUNK_SIZE : Integer.parseInt(size);
+      }
     }
 
     private boolean isOn(String prop) {
       return System.getProperty(prop) != null;
     }
+
+    private Engine engineOf(String name) {
+      for (Engine candidate : Engine.values()) {
+        if (candidate.name().equalsIgnoreCase(name)) {
+          return candidate;
+        }
+      }
+      System.err.printf(
+          "Unknown engine '%s', expected one of interpreter, vm, nodes, closures.%n", name);
+      System.exit(64);
+      return null;
+    }
   }
 }
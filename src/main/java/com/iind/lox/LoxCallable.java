@@ -1,9 +1,41 @@
 package com.iind.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxCallable {
+  Object[] NO_ARGS = new Object[0];
+
   int arity();
 
   Object call(Interpreter interpreter, List<Object> args);
+
+  // The engines call through arrays. Callables written against the list form get them
+  // wrapped, the ones in this package override it to skip the wrapping.
+  default Object call(Interpreter interpreter, Object[] args) {
+    return call(interpreter, Arrays.asList(args));
+  }
+
+  // Call sites with up to four arguments pick one of these by argument count. Callables that
+  // can take their arguments as they are override them, the rest get an array.
+  default Object call0(Interpreter interpreter) {
+    return call(interpreter, NO_ARGS);
+  }
+
+  default Object call1(Interpreter interpreter, Object arg0) {
+    return call(interpreter, new Object[] {arg0});
+  }
+
+  default Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+    return call(interpreter, new Object[] {arg0, arg1});
+  }
+
+  default Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+    return call(interpreter, new Object[] {arg0, arg1, arg2});
+  }
+
+  default Object call4(
+      Interpreter interpreter, Object arg0, Object arg1, Object arg2, Object arg3) {
+    return call(interpreter, new Object[] {arg0, arg1, arg2, arg3});
+  }
 }
@@ -1,49 +1,59 @@
 package com.iind.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
   final String name;
   final LoxClass superClass;
-  final Map<String, LoxFunction> methods;
-
-  LoxClass(String name, LoxClass superClass, Map<String, LoxFunction> methods) {
+  // Every method an instance responds to, inherited ones included, so lookups never walk the
+  // superclass chain
+  final Map<String, LoxMethod> methods;
+  final LoxMethod initializer;
+  final Shape rootShape = new Shape(this);
+  int fieldsHint;
+
+  LoxClass(String name, LoxClass superClass, Map<String, LoxMethod> methods) {
     this.name = name;
     this.superClass = superClass;
-    this.methods = methods;
+    this.methods = flatten(superClass, methods);
+    this.initializer = this.methods.get("init");
+  }
+
+  private static Map<String, LoxMethod> flatten(
+      LoxClass superClass, Map<String, LoxMethod> methods) {
+    if (superClass == null) {
+      return methods;
+    }
+
+    Map<String, LoxMethod> table = new HashMap<>(superClass.methods);
+    table.putAll(methods);
+    return table;
   }
 
   @Override
   public Object call(Interpreter interpreter, List<Object> args) {
+    return call(interpreter, args.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] args) {
     LoxInstance instance = new LoxInstance(this);
 
-    LoxFunction initializer = findMethod("init");
     if (initializer != null) {
       initializer.bind(instance).call(interpreter, args);
     }
     return instance;
   }
 
-  public LoxFunction findMethod(String name) {
-    if (methods.containsKey(name)) {
-      return methods.get(name);
-    }
-
-    if (superClass != null) {
-      return superClass.findMethod(name);
-    }
-
-    return null;
+  public LoxMethod findMethod(String name) {
+    return methods.get(name);
   }
 
   @Override
   public int arity() {
-    LoxFunction initializer = findMethod("init");
-    if (initializer == null) {
-      return 0;
-    }
-    return initializer.arity();
+    return initializer == null ? 0 : initializer.arity();
   }
 
   @Override
@@ -1,23 +1,35 @@
 package com.iind.lox;
 
-import com.iind.lox.Stmt.Function;
 import java.util.List;
 
-public class LoxFunction implements LoxCallable {
-  private final Function decl;
-  private final Environment closure;
-  private final boolean isInitializer;
+import com.iind.lox.Stmt.Function;
+
+public class LoxFunction implements LoxMethod {
+  final Function decl;
+  // Only what the function captured, not the frames it was declared in
+  final Object[] closure;
+  final boolean isInitializer;
+  final LoxInstance receiver;
 
-  LoxFunction(Function decl, Environment closure, boolean isInitializer) {
+  LoxFunction(Function decl, Object[] closure, boolean isInitializer) {
+    this(decl, closure, isInitializer, null);
+  }
+
+  private LoxFunction(
+      Function decl, Object[] closure, boolean isInitializer, LoxInstance receiver) {
     this.isInitializer = isInitializer;
     this.decl = decl;
     this.closure = closure;
+    this.receiver = receiver;
   }
 
-  LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("this", instance);
-    return new LoxFunction(decl, environment, isInitializer);
+  @Override
+  public LoxFunction bind(LoxInstance instance) {
+    return new LoxFunction(decl, closure, isInitializer, instance);
+  }
+
+  boolean isDeclaredBy(Token name) {
+    return decl.name == name;
   }
 
   public int arity() {
@@ -26,26 +38,12 @@ public class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> args) {
-    Environment funEnv = new Environment(closure);
-
-    for (int i = 0; i < decl.params.size(); ++i) {
-      funEnv.define(decl.params.get(i).lexeme, args.get(i));
-    }
-
-    // TODO: Think of another way to return values (one with out Exception mis-use)
-    try {
-      interpreter.executeBlockStmt(decl.body, funEnv);
-    } catch (Return res) {
-      if (isInitializer) {
-        return closure.getAt(0, "this");
-      }
-      return res.value;
-    }
-
-    if (isInitializer) {
-      return closure.getAt(0, "this");
-    }
-    return null;
+    return call(interpreter, args.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] args) {
+    return interpreter.call(this, receiver, args);
   }
 
   @Override
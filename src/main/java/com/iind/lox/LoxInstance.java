@@ -1,22 +1,27 @@
 package com.iind.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-  private LoxClass xlass;
-  private final Map<String, Object> fields = new HashMap<>();
+  private static final Object[] NO_VALUES = new Object[0];
+
+  final LoxClass xlass;
+  Shape shape;
+  Object[] values;
 
   LoxInstance(LoxClass xlass) {
     this.xlass = xlass;
+    this.shape = xlass.rootShape;
+    this.values = xlass.fieldsHint == 0 ? NO_VALUES : new Object[xlass.fieldsHint];
   }
 
   public Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    int slot = shape.slotOf(name.lexeme);
+    if (slot >= 0) {
+      return values[slot];
     }
 
-    LoxFunction method = xlass.findMethod(name.lexeme);
+    LoxMethod method = xlass.findMethod(name.lexeme);
     if (method != null) {
       return method.bind(this);
     }
@@ -25,8 +30,31 @@ public class LoxInstance {
         name, String.format("Unidentified property %s referenced.", name.lexeme));
   }
 
+  boolean hasField(String name) {
+    return shape.slotOf(name) >= 0;
+  }
+
   public void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    int slot = shape.slotOf(name.lexeme);
+    if (slot < 0) {
+      Shape next = shape.withField(name.lexeme);
+      store(next, next.size - 1, value);
+    } else {
+      values[slot] = value;
+    }
+  }
+
+  // Stores into a slot already resolved against next, the shape after the store
+  void store(Shape next, int slot, Object value) {
+    if (next != shape) {
+      shape = next;
+      if (next.size > values.length) {
+        // Later instances of the class start out with room for every field seen so far
+        xlass.fieldsHint = Math.max(xlass.fieldsHint, next.size);
+        values = Arrays.copyOf(values, Math.max(xlass.fieldsHint, values.length * 2));
+      }
+    }
+    values[slot] = value;
   }
 
   @Override
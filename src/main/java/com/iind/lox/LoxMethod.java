@@ -0,0 +1,5 @@
+package com.iind.lox;
+
+public interface LoxMethod extends LoxCallable {
+  LoxCallable bind(LoxInstance instance);
+}
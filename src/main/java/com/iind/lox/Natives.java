@@ -0,0 +1,38 @@
+package com.iind.lox;
+
+import java.util.List;
+
+final class Natives {
+  private Natives() {}
+
+  static void define(Globals globals) {
+    globals.define(
+        "clock",
+        new LoxCallable() {
+          @Override
+          public int arity() {
+            return 0;
+          }
+
+          @Override
+          public Object call(Interpreter interpreter, List<Object> args) {
+            return call0(interpreter);
+          }
+
+          @Override
+          public Object call(Interpreter interpreter, Object[] args) {
+            return call0(interpreter);
+          }
+
+          @Override
+          public Object call0(Interpreter interpreter) {
+            return Double.valueOf(System.currentTimeMillis());
+          }
+
+          @Override
+          public String toString() {
+            return "<native fn>";
+          }
+        });
+  }
+}
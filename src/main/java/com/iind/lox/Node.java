@@ -0,0 +1,50 @@
+package com.iind.lox;
+
+// Base of the executable node tree. Nodes specialize by replacing themselves in their parent,
+// so every node that owns rewritable children has to implement replaceChild.
+abstract class Node {
+  Node parent;
+  private boolean replaced;
+
+  <T extends Node> T adopt(T child) {
+    if (child != null) {
+      child.parent = this;
+    }
+    return child;
+  }
+
+  <T extends Node> T[] adopt(T[] children) {
+    for (T child : children) {
+      adopt(child);
+    }
+    return children;
+  }
+
+  // A node that was already rewritten can still be running in an outer activation, e.g. when
+  // a recursive call specialized it first. Such a node must not rewrite the tree again.
+  boolean isReplaced() {
+    return replaced;
+  }
+
+  <T extends Node> T replace(T replacement) {
+    replaced = true;
+    parent.replaceChild(this, replacement);
+    replacement.parent = parent;
+    return replacement;
+  }
+
+  void replaceChild(Node oldChild, Node newChild) {
+    throw new IllegalStateException(getClass().getSimpleName() + " has no rewritable children.");
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T extends Node> T swap(T child, Node oldChild, Node newChild) {
+    return child == oldChild ? (T) newChild : child;
+  }
+
+  static <T extends Node> void swap(T[] children, Node oldChild, Node newChild) {
+    for (int i = 0; i < children.length; ++i) {
+      children[i] = swap(children[i], oldChild, newChild);
+    }
+  }
+}
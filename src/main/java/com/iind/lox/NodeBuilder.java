@@ -0,0 +1,250 @@
+package com.iind.lox;
+
+import com.iind.lox.Expr.Assignment;
+import com.iind.lox.Expr.Binary;
+import com.iind.lox.Expr.Block;
+import com.iind.lox.Expr.Call;
+import com.iind.lox.Expr.Get;
+import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
+import com.iind.lox.Expr.Literal;
+import com.iind.lox.Expr.Logical;
+import com.iind.lox.Expr.Set;
+import com.iind.lox.Expr.Superr;
+import com.iind.lox.Expr.Ternary;
+import com.iind.lox.Expr.Thiss;
+import com.iind.lox.Expr.Unary;
+import com.iind.lox.Expr.Variable;
+import com.iind.lox.Stmt.ClassDecl;
+import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
+import com.iind.lox.Stmt.Function;
+import com.iind.lox.Stmt.IfControl;
+import com.iind.lox.Stmt.Print;
+import com.iind.lox.Stmt.ReturnControl;
+import com.iind.lox.Stmt.Var;
+import com.iind.lox.Stmt.WhileControl;
+import java.util.List;
+
+// Translates a resolved AST into the executable node tree. Variable references keep the
+// depth and slot the Resolver assigned, so no names are looked up for locals at run time.
+public class NodeBuilder implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+  private final Globals globals;
+  private int scopeDepth;
+
+  NodeBuilder(Globals globals) {
+    this.globals = globals;
+  }
+
+  StmtNode[] build(List<Stmt> statements) {
+    StmtNode[] nodes = new StmtNode[statements.size()];
+    for (int i = 0; i < nodes.length; ++i) {
+      nodes[i] = build(statements.get(i));
+    }
+    return nodes;
+  }
+
+  private StmtNode build(Stmt stmt) {
+    return stmt == null ? null : stmt.accept(this);
+  }
+
+  private ExprNode build(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  // Where a declaration binds its name by name, null below the top level where it takes a slot
+  private Globals declarationGlobals() {
+    return scopeDepth == 0 ? globals : null;
+  }
+
+  // Statement visit methods
+  @Override
+  public StmtNode visitExpressionStmt(Expression expression) {
+    return new StmtNode.Expression(build(expression.expr));
+  }
+
+  @Override
+  public StmtNode visitPrintStmt(Print print) {
+    return new StmtNode.Print(build(print.expr));
+  }
+
+  @Override
+  public StmtNode visitVarStmt(Var var) {
+    return new StmtNode.Var(var.name, declarationGlobals(), var.boxed, build(var.initializer));
+  }
+
+  @Override
+  public StmtNode visitBlockStmt(Stmt.Block block) {
+    if (!block.ownFrame) {
+      return new StmtNode.Block(build(block.statements), false);
+    }
+
+    ++scopeDepth;
+    StmtNode[] statements = build(block.statements);
+    --scopeDepth;
+
+    return new StmtNode.Block(statements, true);
+  }
+
+  @Override
+  public StmtNode visitIfControlStmt(IfControl ifControl) {
+    return new StmtNode.If(
+        build(ifControl.cond), build(ifControl.thenBranch), build(ifControl.elseBranch));
+  }
+
+  @Override
+  public StmtNode visitWhileControlStmt(WhileControl whileControl) {
+    return new StmtNode.While(build(whileControl.cond), build(whileControl.body));
+  }
+
+  @Override
+  public StmtNode visitForControlStmt(ForControl forControl) {
+    if (forControl.ownFrame) {
+      ++scopeDepth;
+    }
+    StmtNode initializer = build(forControl.initializer);
+    ExprNode cond = build(forControl.cond);
+    ExprNode increment = build(forControl.increment);
+    StmtNode body = build(forControl.body);
+    if (forControl.ownFrame) {
+      --scopeDepth;
+    }
+
+    return new StmtNode.For(initializer, cond, increment, body, forControl.ownFrame);
+  }
+
+  @Override
+  public StmtNode visitReturnControlStmt(ReturnControl returnControl) {
+    return new StmtNode.ReturnControl(build(returnControl.res));
+  }
+
+  @Override
+  public StmtNode.Function visitFunctionStmt(Function fun) {
+    Globals bindIn = declarationGlobals();
+
+    ++scopeDepth;
+    StmtNode[] body = build(fun.body);
+    --scopeDepth;
+
+    return new StmtNode.Function(fun, bindIn, body);
+  }
+
+  @Override
+  public StmtNode visitClassDeclStmt(ClassDecl classDecl) {
+    StmtNode.Function[] methods = new StmtNode.Function[classDecl.methods.size()];
+    for (int i = 0; i < methods.length; ++i) {
+      methods[i] = visitFunctionStmt(classDecl.methods.get(i));
+    }
+
+    Token superName = classDecl.superClass != null ? classDecl.superClass.name : null;
+    return new StmtNode.ClassDecl(
+        classDecl.name,
+        declarationGlobals(),
+        classDecl.boxed,
+        superName,
+        build(classDecl.superClass),
+        methods);
+  }
+
+  // Expression visit methods
+  @Override
+  public ExprNode visitLiteralExpr(Literal literal) {
+    return new ExprNode.Literal(literal.value);
+  }
+
+  @Override
+  public ExprNode visitVariableExpr(Variable variable) {
+    if (variable.boxed) {
+      return new ExprNode.ReadBoxed(variable.depth, variable.slot);
+    } else if (variable.depth >= 0) {
+      return new ExprNode.ReadLocal(variable.depth, variable.slot);
+    }
+    return new ExprNode.ReadGlobal(variable.name, globals);
+  }
+
+  @Override
+  public ExprNode visitAssignmentExpr(Assignment assignment) {
+    ExprNode value = build(assignment.value);
+    if (assignment.boxed) {
+      return new ExprNode.WriteBoxed(assignment.depth, assignment.slot, value);
+    } else if (assignment.depth >= 0) {
+      return new ExprNode.WriteLocal(assignment.depth, assignment.slot, value);
+    }
+    return new ExprNode.WriteGlobal(assignment.name, globals, value);
+  }
+
+  @Override
+  public ExprNode visitBlockExpr(Block block) {
+    return new ExprNode.Comma(build(block.expr), build(block.right));
+  }
+
+  @Override
+  public ExprNode visitTernaryExpr(Ternary ternary) {
+    return new ExprNode.Conditional(
+        build(ternary.cond), build(ternary.exprTrue), build(ternary.exprFalse));
+  }
+
+  @Override
+  public ExprNode visitLogicalExpr(Logical logical) {
+    return new ExprNode.Logical(
+        logical.operator.type == TokenType.OR, build(logical.left), build(logical.right));
+  }
+
+  @Override
+  public ExprNode visitBinaryExpr(Binary binary) {
+    return new ExprNode.UninitializedBinary(
+        binary.operator, build(binary.left), build(binary.right));
+  }
+
+  @Override
+  public ExprNode visitUnaryExpr(Unary unary) {
+    return new ExprNode.UninitializedUnary(unary.operator, build(unary.right));
+  }
+
+  @Override
+  public ExprNode visitGroupingExpr(Grouping grouping) {
+    return build(grouping.expression);
+  }
+
+  @Override
+  public ExprNode visitCallExpr(Call call) {
+    ExprNode[] args = new ExprNode[call.args.size()];
+    for (int i = 0; i < args.length; ++i) {
+      args[i] = build(call.args.get(i));
+    }
+    return new ExprNode.UninitializedCall(call.paren, build(call.callee), args);
+  }
+
+  // Call sites specialize on their own here, so an inlined call runs as the original call
+  @Override
+  public ExprNode visitInlinedExpr(Inlined inlined) {
+    return build(inlined.call);
+  }
+
+  @Override
+  public ExprNode visitInvariantExpr(Invariant invariant) {
+    return new ExprNode.Invariant(invariant.depth, invariant.slot, build(invariant.expr));
+  }
+
+  @Override
+  public ExprNode visitGetExpr(Get get) {
+    return new ExprNode.UninitializedGet(get.name, build(get.object));
+  }
+
+  @Override
+  public ExprNode visitSetExpr(Set set) {
+    return new ExprNode.Set(set.name, build(set.object), build(set.value));
+  }
+
+  @Override
+  public ExprNode visitThissExpr(Thiss thiss) {
+    return new ExprNode.ReadLocal(thiss.depth, thiss.slot);
+  }
+
+  @Override
+  public ExprNode visitSuperrExpr(Superr superr) {
+    return new ExprNode.Super(
+        superr.depth, superr.slot, superr.thisDepth, superr.thisSlot, superr.method);
+  }
+}
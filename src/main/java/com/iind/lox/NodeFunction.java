@@ -0,0 +1,77 @@
+package com.iind.lox;
+
+import java.util.List;
+
+public class NodeFunction implements LoxMethod {
+  final StmtNode.Function decl;
+  // Only what the function captured, not the frames it was declared in
+  private final Environment closure;
+  private final boolean isInitializer;
+  private final LoxInstance receiver;
+
+  NodeFunction(StmtNode.Function decl, Environment closure, boolean isInitializer) {
+    this(decl, closure, isInitializer, null);
+  }
+
+  private NodeFunction(
+      StmtNode.Function decl, Environment closure, boolean isInitializer, LoxInstance receiver) {
+    this.decl = decl;
+    this.closure = closure;
+    this.isInitializer = isInitializer;
+    this.receiver = receiver;
+  }
+
+  @Override
+  public NodeFunction bind(LoxInstance instance) {
+    return new NodeFunction(decl, closure, isInitializer, instance);
+  }
+
+  @Override
+  public int arity() {
+    return decl.arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> args) {
+    return call(interpreter, args.toArray());
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, Object[] args) {
+    return invoke(args);
+  }
+
+  Object invoke(Object[] args) {
+    return invoke(receiver, args);
+  }
+
+  Object invoke(LoxInstance self, Object[] args) {
+    Environment frame = new Environment(closure);
+    if (self != null) {
+      frame.define(self);
+    }
+    for (Object arg : args) {
+      frame.define(arg);
+    }
+    frame.box(decl.boxedSlots);
+
+    Object res = null;
+    try {
+      for (StmtNode statement : decl.body) {
+        statement.execute(frame);
+      }
+    } catch (Return ret) {
+      res = ret.value;
+    }
+
+    if (isInitializer) {
+      return self;
+    }
+    return res;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<fn %s>", decl.name.lexeme);
+  }
+}
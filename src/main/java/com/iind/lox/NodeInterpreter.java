@@ -0,0 +1,26 @@
+package com.iind.lox;
+
+import java.util.List;
+
+// Runs programs on the self-specializing node tree built by NodeBuilder
+public class NodeInterpreter {
+  private final Globals globals = new Globals();
+
+  NodeInterpreter() {
+    Natives.define(globals);
+  }
+
+  void interpret(List<Stmt> statements) {
+    StmtNode[] nodes = new NodeBuilder(globals).build(statements);
+
+    // Declarations at the top level go to the globals, blocks there get frames of their own
+    Environment frame = new Environment(null);
+    try {
+      for (StmtNode node : nodes) {
+        node.execute(frame);
+      }
+    } catch (RuntimeError e) {
+      Lox.runtimeError(e);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.iind.lox;
+
+// Instruction set of the bytecode VM. Plain byte constants rather than an enum so the
+// dispatch loop can switch on the raw byte without an ordinal lookup.
+final class OpCode {
+  private OpCode() {}
+
+  // Operands: u32, u24 and u16 = four, three and two bytes big endian, u8 = one byte. Constants
+  // past the first 65536 of a chunk are pushed with CONSTANT_LONG, the other instructions that
+  // name a constant always take a u24 index.
+  static final byte CONSTANT = 0; // u16 constant
+  static final byte NIL = 1;
+  static final byte TRUE = 2;
+  static final byte FALSE = 3;
+  static final byte POP = 4;
+  static final byte GET_LOCAL = 5; // u8 slot
+  static final byte SET_LOCAL = 6; // u8 slot
+  static final byte GET_GLOBAL = 7; // u16 global slot
+  static final byte DEFINE_GLOBAL = 8; // u16 global slot
+  static final byte SET_GLOBAL = 9; // u16 global slot
+  static final byte GET_UPVALUE = 10; // u8 index
+  static final byte SET_UPVALUE = 11; // u8 index
+  static final byte GET_PROPERTY = 12; // u24 name token
+  static final byte SET_PROPERTY = 13; // u24 name token
+  static final byte GET_SUPER = 14; // u24 name token
+  static final byte EQUAL = 15;
+  static final byte NOT_EQUAL = 16;
+  static final byte GREATER = 17;
+  static final byte GREATER_EQUAL = 18;
+  static final byte LESS = 19;
+  static final byte LESS_EQUAL = 20;
+  static final byte ADD = 21;
+  static final byte SUBTRACT = 22;
+  static final byte MULTIPLY = 23;
+  static final byte DIVIDE = 24;
+  static final byte NOT = 25;
+  static final byte NEGATE = 26;
+  static final byte PRINT = 27;
+  static final byte JUMP = 28; // u32 forward offset
+  static final byte JUMP_IF_FALSE = 29; // u32 forward offset
+  static final byte LOOP = 30; // u32 backward offset
+  static final byte CALL = 31; // u8 argument count
+  static final byte INVOKE = 32; // u24 name token, u8 argument count
+  static final byte CLOSURE = 33; // u24 function, then (u8 isLocal, u16 index) per upvalue
+  static final byte CLOSE_UPVALUE = 34;
+  static final byte RETURN = 35;
+  static final byte CLASS = 36; // u24 name token, u16 method count, u8 has superclass
+  // Wide forms for functions with more locals, upvalues or constants than the short forms number
+  static final byte GET_LOCAL_LONG = 37; // u16 slot
+  static final byte SET_LOCAL_LONG = 38; // u16 slot
+  static final byte GET_UPVALUE_LONG = 39; // u16 index
+  static final byte SET_UPVALUE_LONG = 40; // u16 index
+  static final byte CONSTANT_LONG = 41; // u24 constant
+
+  static final String[] NAMES = {
+    "CONSTANT",
+    "NIL",
+    "TRUE",
+    "FALSE",
+    "POP",
+    "GET_LOCAL",
+    "SET_LOCAL",
+    "GET_GLOBAL",
+    "DEFINE_GLOBAL",
+    "SET_GLOBAL",
+    "GET_UPVALUE",
+    "SET_UPVALUE",
+    "GET_PROPERTY",
+    "SET_PROPERTY",
+    "GET_SUPER",
+    "EQUAL",
+    "NOT_EQUAL",
+    "GREATER",
+    "GREATER_EQUAL",
+    "LESS",
+    "LESS_EQUAL",
+    "ADD",
+    "SUBTRACT",
+    "MULTIPLY",
+    "DIVIDE",
+    "NOT",
+    "NEGATE",
+    "PRINT",
+    "JUMP",
+    "JUMP_IF_FALSE",
+    "LOOP",
+    "CALL",
+    "INVOKE",
+    "CLOSURE",
+    "CLOSE_UPVALUE",
+    "RETURN",
+    "CLASS",
+    "GET_LOCAL_LONG",
+    "SET_LOCAL_LONG",
+    "GET_UPVALUE_LONG",
+    "SET_UPVALUE_LONG",
+    "CONSTANT_LONG"
+  };
+}
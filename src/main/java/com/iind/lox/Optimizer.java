@@ -0,0 +1,538 @@
+package com.iind.lox;
+
+import com.iind.lox.Expr.Assignment;
+import com.iind.lox.Expr.Binary;
+import com.iind.lox.Expr.Block;
+import com.iind.lox.Expr.Call;
+import com.iind.lox.Expr.Get;
+import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
+import com.iind.lox.Expr.Literal;
+import com.iind.lox.Expr.Logical;
+import com.iind.lox.Expr.Set;
+import com.iind.lox.Expr.Superr;
+import com.iind.lox.Expr.Ternary;
+import com.iind.lox.Expr.Thiss;
+import com.iind.lox.Expr.Unary;
+import com.iind.lox.Expr.Variable;
+import com.iind.lox.Stmt.ClassDecl;
+import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
+import com.iind.lox.Stmt.Function;
+import com.iind.lox.Stmt.IfControl;
+import com.iind.lox.Stmt.Print;
+import com.iind.lox.Stmt.ReturnControl;
+import com.iind.lox.Stmt.Var;
+import com.iind.lox.Stmt.WhileControl;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rewrites a resolved AST before it runs: folds operators over literals, replaces reads of
+// never assigned variables with their constant initializers, drops branches and loops whose
+// condition is constant and inlines calls to small top-level functions. Nodes without changes
+// are kept as they are, so everything the Resolver recorded on them stays valid; new nodes get
+// the same annotations copied over.
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private static final int MAX_INLINE_SIZE = 16;
+
+  private final Resolver resolver;
+  private final Map<Var, Object> constants = new HashMap<>();
+  private final Map<String, Function> inlinable = new HashMap<>();
+  // Arguments standing in for the parameters while a function body is being inlined
+  private Expr[] arguments;
+  // Variables declared for loop invariants so far
+  private int hoisted;
+
+  Optimizer(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    findInlinable(statements);
+    return optimizeAll(statements);
+  }
+
+  private List<Stmt> optimizeAll(List<Stmt> statements) {
+    List<Stmt> res = new ArrayList<>(statements.size());
+    for (Stmt statement : statements) {
+      Stmt optimized = optimize(statement);
+      if (optimized != null) {
+        res.add(optimized);
+      }
+    }
+    return res;
+  }
+
+  // Returns null for statements that have no effect
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Stmt optimizeNested(Stmt stmt) {
+    Stmt optimized = optimize(stmt);
+    return optimized != null ? optimized : new Stmt.Block(new ArrayList<>());
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private Stmt hoist(Stmt loop) {
+    Stmt res = LoopInvariants.hoist(resolver, loop, hoisted);
+    if (res != loop) {
+      hoisted += ((Stmt.Block) res).statements.size() - 1;
+    }
+    return res;
+  }
+
+  private static boolean isLiteral(Expr expr) {
+    return expr instanceof Literal;
+  }
+
+  private static Object valueOf(Expr expr) {
+    return ((Literal) expr).value;
+  }
+
+  // Statement visit methods
+  @Override
+  public Stmt visitExpressionStmt(Expression expression) {
+    Expr expr = optimize(expression.expr);
+    if (isLiteral(expr)) {
+      return null;
+    }
+    return expr == expression.expr ? expression : new Expression(expr);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Print print) {
+    Expr expr = optimize(print.expr);
+    return expr == print.expr ? print : new Print(expr);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Var var) {
+    if (var.initializer == null) {
+      constants.put(var, null);
+      return var;
+    }
+
+    Expr initializer = optimize(var.initializer);
+    if (isLiteral(initializer)) {
+      constants.put(var, valueOf(initializer));
+    }
+    return initializer == var.initializer ? var : new Var(var.name, initializer);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block block) {
+    return new Stmt.Block(optimizeAll(block.statements));
+  }
+
+  @Override
+  public Stmt visitIfControlStmt(IfControl ifControl) {
+    Expr cond = optimize(ifControl.cond);
+    if (isLiteral(cond)) {
+      if (Interpreter.isTruthy(valueOf(cond))) {
+        return optimize(ifControl.thenBranch);
+      }
+      return ifControl.elseBranch != null ? optimize(ifControl.elseBranch) : null;
+    }
+
+    Stmt thenBranch = optimizeNested(ifControl.thenBranch);
+    Stmt elseBranch = ifControl.elseBranch != null ? optimizeNested(ifControl.elseBranch) : null;
+    return new IfControl(cond, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileControlStmt(WhileControl whileControl) {
+    Expr cond = optimize(whileControl.cond);
+    if (isLiteral(cond) && !Interpreter.isTruthy(valueOf(cond))) {
+      return null;
+    }
+    return hoist(new WhileControl(cond, optimizeNested(whileControl.body)));
+  }
+
+  // A loop that never runs leaves its initializer, in a block standing in for the loop's scope
+  @Override
+  public Stmt visitForControlStmt(ForControl forControl) {
+    Stmt initializer = forControl.initializer != null ? optimize(forControl.initializer) : null;
+    Expr cond = optimize(forControl.cond);
+    if (isLiteral(cond) && !Interpreter.isTruthy(valueOf(cond))) {
+      return initializer != null ? new Stmt.Block(List.of(initializer)) : null;
+    }
+
+    Expr increment = forControl.increment != null ? optimize(forControl.increment) : null;
+    if (increment != null && isLiteral(increment)) {
+      increment = null;
+    }
+
+    return hoist(new ForControl(initializer, cond, increment, optimizeNested(forControl.body)));
+  }
+
+  @Override
+  public Stmt visitReturnControlStmt(ReturnControl returnControl) {
+    if (returnControl.res == null) {
+      return returnControl;
+    }
+
+    Expr res = optimize(returnControl.res);
+    return res == returnControl.res ? returnControl : new ReturnControl(returnControl.keyword, res);
+  }
+
+  @Override
+  public Function visitFunctionStmt(Function fun) {
+    return new Function(fun.name, fun.params, optimizeAll(fun.body));
+  }
+
+  @Override
+  public Stmt visitClassDeclStmt(ClassDecl classDecl) {
+    List<Function> methods = new ArrayList<>(classDecl.methods.size());
+    for (Function method : classDecl.methods) {
+      methods.add(visitFunctionStmt(method));
+    }
+    return new ClassDecl(classDecl.name, classDecl.superClass, methods);
+  }
+
+  // Expression visit methods
+  @Override
+  public Expr visitLiteralExpr(Literal literal) {
+    return literal;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Variable variable) {
+    // Inlined bodies have no scopes of their own, so depth 0 means a parameter
+    if (arguments != null && variable.depth == 0) {
+      return arguments[variable.slot];
+    }
+
+    Var decl = resolver.constantDeclaration(variable);
+    if (decl != null && constants.containsKey(decl)) {
+      return new Literal(constants.get(decl));
+    }
+    return variable;
+  }
+
+  @Override
+  public Expr visitAssignmentExpr(Assignment assignment) {
+    Expr value = optimize(assignment.value);
+    if (value == assignment.value) {
+      return assignment;
+    }
+
+    Assignment res = new Assignment(assignment.name, value);
+    res.depth = assignment.depth;
+    res.slot = assignment.slot;
+    return res;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Grouping grouping) {
+    Expr expression = optimize(grouping.expression);
+    if (isLiteral(expression)) {
+      return expression;
+    }
+    return expression == grouping.expression ? grouping : new Grouping(expression);
+  }
+
+  @Override
+  public Expr visitBlockExpr(Block block) {
+    Expr expr = optimize(block.expr);
+    Expr right = optimize(block.right);
+
+    // The right operand only runs for its effects, a literal has none
+    if (isLiteral(right)) {
+      return expr;
+    }
+    return expr == block.expr && right == block.right ? block : new Block(expr, right);
+  }
+
+  @Override
+  public Expr visitTernaryExpr(Ternary ternary) {
+    Expr cond = optimize(ternary.cond);
+    if (isLiteral(cond)) {
+      return Interpreter.isTruthy(valueOf(cond))
+          ? optimize(ternary.exprTrue)
+          : optimize(ternary.exprFalse);
+    }
+    return new Ternary(cond, optimize(ternary.exprTrue), optimize(ternary.exprFalse));
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Logical logical) {
+    Expr left = optimize(logical.left);
+    if (isLiteral(left)) {
+      boolean isOr = logical.operator.type == TokenType.OR;
+      return Interpreter.isTruthy(valueOf(left)) == isOr ? left : optimize(logical.right);
+    }
+
+    Expr right = optimize(logical.right);
+    return left == logical.left && right == logical.right
+        ? logical
+        : new Logical(left, logical.operator, right);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Binary binary) {
+    Expr left = optimize(binary.left);
+    Expr right = optimize(binary.right);
+
+    if (isLiteral(left) && isLiteral(right)) {
+      try {
+        return new Literal(Interpreter.binary(binary.operator, valueOf(left), valueOf(right)));
+      } catch (RuntimeError e) {
+        // Left for the program to report when it gets there
+      }
+    }
+
+    if (left == binary.left && right == binary.right) {
+      return binary;
+    }
+
+    Binary res = new Binary(left, binary.operator, right);
+    res.numeric = Resolver.producesNumber(res);
+    return res;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Unary unary) {
+    Expr right = optimize(unary.right);
+
+    if (isLiteral(right)) {
+      try {
+        return new Literal(Interpreter.unary(unary.operator, valueOf(right)));
+      } catch (RuntimeError e) {
+        // Left for the program to report when it gets there
+      }
+    }
+    return right == unary.right ? unary : new Unary(unary.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Call call) {
+    Expr callee = optimize(call.callee);
+    List<Expr> args = new ArrayList<>(call.args.size());
+    for (Expr arg : call.args) {
+      args.add(optimize(arg));
+    }
+    Call res = new Call(callee, call.paren, args);
+
+    Function target = inlineTarget(res);
+    if (target == null) {
+      return res;
+    }
+
+    arguments = args.toArray(new Expr[0]);
+    Expr body = optimize(((ReturnControl) target.body.get(0)).res);
+    arguments = null;
+
+    return new Inlined(res, target.name, body);
+  }
+
+  @Override
+  public Expr visitInlinedExpr(Inlined inlined) {
+    return inlined;
+  }
+
+  @Override
+  public Expr visitInvariantExpr(Invariant invariant) {
+    return invariant;
+  }
+
+  // Functions qualify when they are declared once at the top level, never assigned, and
+  // their body returns a small expression that neither assigns nor calls the function itself.
+  // The binding can still change in a later REPL line, so inlined calls check it when run.
+  private void findInlinable(List<Stmt> statements) {
+    Map<String, Integer> declarations = new HashMap<>();
+    for (Stmt statement : statements) {
+      Token name = declaredName(statement);
+      if (name != null) {
+        declarations.merge(name.lexeme, 1, Integer::sum);
+      }
+    }
+
+    for (Stmt statement : statements) {
+      if (!(statement instanceof Function)) {
+        continue;
+      }
+
+      Function fun = (Function) statement;
+      String name = fun.name.lexeme;
+      if (declarations.get(name) == 1
+          && !resolver.isAssignedGlobal(name)
+          && fun.body.size() == 1
+          && fun.body.get(0) instanceof ReturnControl
+          && ((ReturnControl) fun.body.get(0)).res != null
+          && ((ReturnControl) fun.body.get(0)).res.accept(new BodySize(name))
+              <= MAX_INLINE_SIZE) {
+        inlinable.put(name, fun);
+      }
+    }
+  }
+
+  private static Token declaredName(Stmt stmt) {
+    if (stmt instanceof Var) {
+      return ((Var) stmt).name;
+    } else if (stmt instanceof Function) {
+      return ((Function) stmt).name;
+    } else if (stmt instanceof ClassDecl) {
+      return ((ClassDecl) stmt).name;
+    }
+    return null;
+  }
+
+  // Arguments are substituted for the parameters, so they must read the same wherever and
+  // however often the body uses them. Bodies being inlined do not inline any further.
+  private Function inlineTarget(Call call) {
+    if (arguments != null || !(call.callee instanceof Variable)) {
+      return null;
+    }
+
+    Variable callee = (Variable) call.callee;
+    Function target = callee.depth < 0 ? inlinable.get(callee.name.lexeme) : null;
+    if (target == null || target.params.size() != call.args.size()) {
+      return null;
+    }
+
+    for (Expr arg : call.args) {
+      boolean stable =
+          arg instanceof Literal
+              || arg instanceof Thiss
+              || (arg instanceof Variable && resolver.readsUnassignedLocal((Variable) arg));
+      if (!stable) {
+        return null;
+      }
+    }
+    return target;
+  }
+
+  @Override
+  public Expr visitGetExpr(Get get) {
+    Expr object = optimize(get.object);
+    return object == get.object ? get : new Get(object, get.name);
+  }
+
+  @Override
+  public Expr visitSetExpr(Set set) {
+    Expr object = optimize(set.object);
+    Expr value = optimize(set.value);
+    return object == set.object && value == set.value ? set : new Set(object, set.name, value);
+  }
+
+  @Override
+  public Expr visitThissExpr(Thiss thiss) {
+    return thiss;
+  }
+
+  @Override
+  public Expr visitSuperrExpr(Superr superr) {
+    return superr;
+  }
+
+  // Counts the nodes of an expression, making anything that assigns or calls the function
+  // being measured too large to inline
+  private static class BodySize implements Expr.Visitor<Integer> {
+    private static final int TOO_LARGE = MAX_INLINE_SIZE + 1;
+
+    private final String function;
+
+    BodySize(String function) {
+      this.function = function;
+    }
+
+    private int sizeOf(Expr... exprs) {
+      int size = 1;
+      for (Expr expr : exprs) {
+        size += expr.accept(this);
+      }
+      return Math.min(size, TOO_LARGE);
+    }
+
+    @Override
+    public Integer visitBlockExpr(Block block) {
+      return sizeOf(block.expr, block.right);
+    }
+
+    @Override
+    public Integer visitAssignmentExpr(Assignment assignment) {
+      return TOO_LARGE;
+    }
+
+    @Override
+    public Integer visitTernaryExpr(Ternary ternary) {
+      return sizeOf(ternary.cond, ternary.exprTrue, ternary.exprFalse);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Binary binary) {
+      return sizeOf(binary.left, binary.right);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Grouping grouping) {
+      return sizeOf(grouping.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Literal literal) {
+      return 1;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Logical logical) {
+      return sizeOf(logical.left, logical.right);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Variable variable) {
+      return 1;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Unary unary) {
+      return sizeOf(unary.right);
+    }
+
+    @Override
+    public Integer visitCallExpr(Call call) {
+      if (call.callee instanceof Variable
+          && ((Variable) call.callee).name.lexeme.equals(function)) {
+        return TOO_LARGE;
+      }
+      return sizeOf(call.callee) + sizeOf(call.args.toArray(new Expr[0]));
+    }
+
+    @Override
+    public Integer visitThissExpr(Thiss thiss) {
+      return 1;
+    }
+
+    @Override
+    public Integer visitSuperrExpr(Superr superr) {
+      return 1;
+    }
+
+    @Override
+    public Integer visitSetExpr(Set set) {
+      return sizeOf(set.object, set.value);
+    }
+
+    @Override
+    public Integer visitGetExpr(Get get) {
+      return sizeOf(get.object);
+    }
+
+    @Override
+    public Integer visitInlinedExpr(Inlined inlined) {
+      return TOO_LARGE;
+    }
+
+    @Override
+    public Integer visitInvariantExpr(Invariant invariant) {
+      return TOO_LARGE;
+    }
+  }
+}
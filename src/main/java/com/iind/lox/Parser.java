@@ -2,17 +2,17 @@ package com.iind.lox;
 
 import com.iind.lox.Stmt.Function;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
   static class ParseError extends RuntimeException {}
 
-  final List<Token> tokens;
+  // Tokens are materialized from the columns only where the AST keeps them
+  final Tokens tokens;
 
   private int current = 0;
 
-  Parser(List<Token> tokens) {
+  Parser(Tokens tokens) {
     this.tokens = tokens;
   }
 
@@ -50,24 +50,23 @@ public class Parser {
 
     Expr.Variable superclass = null;
     if (match(TokenType.LESS)) {
-      consume(TokenType.IDENTIFIER, "Expect super class name.");
-      superclass = new Expr.Variable(previous());
+      superclass = new Expr.Variable(consume(TokenType.IDENTIFIER, "Expect super class name."));
     }
 
-    consume(TokenType.LEFT_BRACE, "Expect '{' after class name.");
+    expect(TokenType.LEFT_BRACE, "Expect '{' after class name.");
 
     List<Function> methods = new ArrayList<>();
     while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
       methods.add(funDeclaration("method"));
     }
 
-    consume(TokenType.RIGHT_BRACE, "Expect '}' at end of class body.");
+    expect(TokenType.RIGHT_BRACE, "Expect '}' at end of class body.");
     return new Stmt.ClassDecl(name, superclass, methods);
   }
 
   private Function funDeclaration(String kind) {
     Token name = consume(TokenType.IDENTIFIER, String.format("Expect %s name", kind));
-    consume(TokenType.LEFT_PAREN, String.format("Expect '(' after %s name.", kind));
+    expect(TokenType.LEFT_PAREN, String.format("Expect '(' after %s name.", kind));
 
     List<Token> params = new ArrayList<>();
     if (!check(TokenType.RIGHT_PAREN)) {
@@ -79,8 +78,8 @@ public class Parser {
       } while (match(TokenType.COMMA));
     }
 
-    consume(TokenType.RIGHT_PAREN, String.format("Expect ')' at end of %s parameter list)", kind));
-    consume(TokenType.LEFT_BRACE, String.format("Expect '{' before %s body", kind));
+    expect(TokenType.RIGHT_PAREN, String.format("Expect ')' at end of %s parameter list)", kind));
+    expect(TokenType.LEFT_BRACE, String.format("Expect '{' before %s body", kind));
 
     List<Stmt> body = blockStatement();
 
@@ -95,7 +94,7 @@ public class Parser {
       initializer = expression();
     }
 
-    consume(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
+    expect(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
     return new Stmt.Var(name, initializer);
   }
 
@@ -118,7 +117,7 @@ public class Parser {
   }
 
   private Stmt forControlStatement() {
-    consume(TokenType.LEFT_PAREN, "Expect '(' after if.");
+    expect(TokenType.LEFT_PAREN, "Expect '(' after if.");
     Stmt initializer = null;
 
     if (match(TokenType.SEMICOLON)) {
@@ -133,36 +132,26 @@ public class Parser {
     if (!check(TokenType.SEMICOLON)) {
       cond = expression();
     }
-    consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+    expect(TokenType.SEMICOLON, "Expect ';' after loop condition.");
 
     Expr increment = null;
     if (!check(TokenType.SEMICOLON)) {
       increment = expression();
     }
-    consume(TokenType.RIGHT_PAREN, "Expect ')' after clauses.");
+    expect(TokenType.RIGHT_PAREN, "Expect ')' after clauses.");
 
     Stmt body = statement();
 
-    if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-    }
-
     if (cond == null) {
       cond = new Expr.Literal(true);
     }
-    body = new Stmt.WhileControl(cond, body);
-
-    if (initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
-    }
-
-    return body;
+    return new Stmt.ForControl(initializer, cond, increment, body);
   }
 
   private Stmt ifStatement() {
-    consume(TokenType.LEFT_PAREN, "Expect '(' after if.");
+    expect(TokenType.LEFT_PAREN, "Expect '(' after if.");
     Expr cond = expression();
-    consume(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
+    expect(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
 
     Stmt thenBranch = statement();
 
@@ -176,7 +165,7 @@ public class Parser {
 
   private Stmt printStatement() {
     Expr expr = blockExpression();
-    consume(TokenType.SEMICOLON, "Expect ';' after value.");
+    expect(TokenType.SEMICOLON, "Expect ';' after value.");
     return new Stmt.Print(expr);
   }
 
@@ -187,14 +176,14 @@ public class Parser {
       res = expression();
     }
 
-    consume(TokenType.SEMICOLON, "Expect ';' after return statement.");
+    expect(TokenType.SEMICOLON, "Expect ';' after return statement.");
     return new Stmt.ReturnControl(keyword, res);
   }
 
   private Stmt whileStatement() {
-    consume(TokenType.LEFT_PAREN, "Expect '(' after while.");
+    expect(TokenType.LEFT_PAREN, "Expect '(' after while.");
     Expr cond = expression();
-    consume(TokenType.RIGHT_PAREN, "Expect ')' after while condition.");
+    expect(TokenType.RIGHT_PAREN, "Expect ')' after while condition.");
 
     Stmt body = statement();
 
@@ -207,13 +196,13 @@ public class Parser {
       statements.add(declaration());
     }
 
-    consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
+    expect(TokenType.RIGHT_BRACE, "Expect '}' after block.");
     return statements;
   }
 
   private Stmt expressionStatement() {
     Expr expr = blockExpression();
-    consume(TokenType.SEMICOLON, "Expect ';' after expression.");
+    expect(TokenType.SEMICOLON, "Expect ';' after expression.");
     return new Stmt.Expression(expr);
   }
 
@@ -236,7 +225,7 @@ public class Parser {
     Expr expr = ternary();
 
     if (match(TokenType.EQUAL)) {
-      Token equals = previous();
+      int equals = current - 1;
       Expr value = assignment();
 
       if (expr instanceof Expr.Variable) {
@@ -246,7 +235,7 @@ public class Parser {
         Expr.Get get = (Expr.Get) expr;
         expr = new Expr.Set(get.object, get.name, value);
       } else {
-        error(equals, "Invalid assignment target.");
+        error(tokens.token(equals), "Invalid assignment target.");
       }
     }
 
@@ -398,12 +387,12 @@ public class Parser {
     }
 
     if (match(TokenType.NUMBER, TokenType.STRING)) {
-      return new Expr.Literal(previous().literal);
+      return new Expr.Literal(tokens.literal(current - 1));
     }
 
     if (match(TokenType.SUPER)) {
       Token keyword = previous();
-      consume(TokenType.DOT, "Expect '.' after 'super'.");
+      expect(TokenType.DOT, "Expect '.' after 'super'.");
       Token method = consume(TokenType.IDENTIFIER, "Expect superclass method name.");
       return new Expr.Superr(keyword, method);
     }
@@ -418,7 +407,7 @@ public class Parser {
 
     if (match(TokenType.LEFT_PAREN)) {
       Expr expr = expression();
-      consume(TokenType.RIGHT_PAREN, "Expected ')' after expression!");
+      expect(TokenType.RIGHT_PAREN, "Expected ')' after expression!");
       return new Expr.Grouping(expr);
     }
 
@@ -438,11 +427,11 @@ public class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == TokenType.SEMICOLON) {
+      if (tokens.type(current - 1) == TokenType.SEMICOLON) {
         return;
       }
 
-      switch (peek().type) {
+      switch (peekType()) {
         case CLASS:
         case FUN:
         case FOR:
@@ -466,7 +455,7 @@ public class Parser {
     }
 
     for (TokenType type : types) {
-      if (peek().type == type) {
+      if (peekType() == type) {
         advance();
         return true;
       }
@@ -476,28 +465,41 @@ public class Parser {
   }
 
   private boolean isAtEnd() {
-    return peek().type == TokenType.EOF;
+    return peekType() == TokenType.EOF;
   }
 
-  private Token advance() {
-    return isAtEnd() ? peek() : tokens.get(current++);
+  private void advance() {
+    if (!isAtEnd()) {
+      current++;
+    }
+  }
+
+  private TokenType peekType() {
+    return tokens.type(current);
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return tokens.token(current);
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return tokens.token(current - 1);
   }
 
   private boolean check(TokenType type) {
-    return peek().type == type;
+    return peekType() == type;
   }
 
   private Token consume(TokenType type, String message) {
+    expect(type, message);
+    return previous();
+  }
+
+  // Like consume for punctuation the AST does not keep, which then never becomes a Token
+  private void expect(TokenType type, String message) {
     if (check(type)) {
-      return advance();
+      advance();
+      return;
     }
 
     throw error(peek(), message);
@@ -0,0 +1,91 @@
+package com.iind.lox;
+
+// Polymorphic inline cache for one property get or set site, keyed by receiver shape. Since a
+// shape belongs to a single class, an entry can remember the field slot or the resolved method
+// without consulting the class again. Sites that see too many shapes go megamorphic and use
+// the uncached lookups from then on.
+final class PropertyCache {
+  private static final int MAX_ENTRIES = 4;
+
+  private static final class Entry {
+    final Shape shape;
+    final int slot;
+    final LoxMethod method;
+    final Shape next;
+
+    Entry(Shape shape, int slot, LoxMethod method, Shape next) {
+      this.shape = shape;
+      this.slot = slot;
+      this.method = method;
+      this.next = next;
+    }
+  }
+
+  private final Entry[] entries = new Entry[MAX_ENTRIES];
+  private int count;
+  private boolean megamorphic;
+
+  Object get(LoxInstance instance, Token name) {
+    Entry entry = lookup(instance, name);
+    if (entry == null) {
+      return instance.get(name);
+    }
+    return entry.slot >= 0 ? instance.values[entry.slot] : entry.method.bind(instance);
+  }
+
+  // The method a get would bind, or null when the property is a field or does not exist
+  LoxMethod method(LoxInstance instance, Token name) {
+    Entry entry = lookup(instance, name);
+    if (entry != null) {
+      return entry.method;
+    }
+    return instance.hasField(name.lexeme) ? null : instance.xlass.findMethod(name.lexeme);
+  }
+
+  private Entry lookup(LoxInstance instance, Token name) {
+    Shape shape = instance.shape;
+    for (int i = 0; i < count; ++i) {
+      if (entries[i].shape == shape) {
+        return entries[i];
+      }
+    }
+
+    if (megamorphic) {
+      return null;
+    }
+
+    int slot = shape.slotOf(name.lexeme);
+    LoxMethod method = slot < 0 ? instance.xlass.findMethod(name.lexeme) : null;
+    if (slot < 0 && method == null) {
+      return null;
+    }
+
+    Entry entry = new Entry(shape, slot, method, shape);
+    remember(entry);
+    return entry;
+  }
+
+  void set(LoxInstance instance, Token name, Object value) {
+    Shape shape = instance.shape;
+    for (int i = 0; i < count; ++i) {
+      Entry entry = entries[i];
+      if (entry.shape == shape) {
+        instance.store(entry.next, entry.slot, value);
+        return;
+      }
+    }
+
+    instance.set(name, value);
+    if (!megamorphic) {
+      remember(new Entry(shape, instance.shape.slotOf(name.lexeme), null, instance.shape));
+    }
+  }
+
+  private void remember(Entry entry) {
+    if (count == MAX_ENTRIES) {
+      megamorphic = true;
+      return;
+    }
+    entries[count++] = entry;
+  }
+}
@@ -6,6 +6,8 @@ import com.iind.lox.Expr.Block;
 import com.iind.lox.Expr.Call;
 import com.iind.lox.Expr.Get;
 import com.iind.lox.Expr.Grouping;
+import com.iind.lox.Expr.Inlined;
+import com.iind.lox.Expr.Invariant;
 import com.iind.lox.Expr.Literal;
 import com.iind.lox.Expr.Logical;
 import com.iind.lox.Expr.Set;
@@ -16,27 +18,41 @@ import com.iind.lox.Expr.Unary;
 import com.iind.lox.Expr.Variable;
 import com.iind.lox.Stmt.ClassDecl;
 import com.iind.lox.Stmt.Expression;
+import com.iind.lox.Stmt.ForControl;
 import com.iind.lox.Stmt.Function;
 import com.iind.lox.Stmt.IfControl;
 import com.iind.lox.Stmt.Print;
 import com.iind.lox.Stmt.ReturnControl;
 import com.iind.lox.Stmt.Var;
 import com.iind.lox.Stmt.WhileControl;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  // Globals assigned anywhere in the session, a function from an earlier REPL line may still
+  // assign one
+  private final java.util.Set<String> assignedGlobals;
+
+  private final Stack<Map<String, Local>> scopes = new Stack<>();
+  // The frame each scope keeps its locals in, shared with the enclosing scope when flattened
+  private final Stack<Frame> frames = new Stack<>();
+  // What the Optimizer needs to propagate constants: the local each reference reads, and
+  // for top-level reads of globals the var declaration in effect at that point
+  private final Map<Variable, Local> localRefs = new HashMap<>();
+  private final Map<Variable, Var> globalRefs = new HashMap<>();
+  private final Map<String, Var> globalDecls = new HashMap<>();
+  // What DeadCode needs to drop locals nothing reads
+  private final Map<Var, Local> localDecls = new HashMap<>();
+  private final Map<Assignment, Local> localStores = new HashMap<>();
+  private Assignment statementStore;
+  // Functions being resolved, the innermost last
+  private final Stack<Closure> functions = new Stack<>();
   private FunctionType currentFunction = FunctionType.NONE;
   private ClassType currentClassType = ClassType.NONE;
 
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
-  }
-
   private enum FunctionType {
     NONE,
     FUNCTION,
@@ -50,10 +66,67 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     SUBCLASS
   }
 
+  private static class Frame {
+    int size;
+  }
+
+  // The locals a function captures from the scopes around it, each found by its depth and
+  // slot where the function is created
+  private static class Closure {
+    final int scope;
+    final Map<Local, Integer> captures = new HashMap<>();
+    final List<Integer> depths = new ArrayList<>();
+    final List<Integer> slots = new ArrayList<>();
+
+    Closure(int scope) {
+      this.scope = scope;
+    }
+  }
+
+  private static class Local {
+    final int slot;
+    boolean defined;
+    boolean assigned;
+    boolean read;
+    // Used from a function declared in a nested scope
+    boolean captured;
+    // Captured by the function or class it names, created before the binding is defined
+    boolean capturedUndefined;
+    // Assigned by an expression nested in another one, not just by a statement of its own
+    boolean assignedInExpression;
+    Stmt declaration;
+    // Every Variable and Assignment resolved to this local
+    final List<Expr> refs = new ArrayList<>();
+
+    Local(int slot) {
+      this.slot = slot;
+    }
+
+    // Closures copy the values they capture, unless the variable may change afterwards or
+    // gets its value only after they exist. Then the frame and the closures share a box.
+    boolean isBoxed() {
+      return captured && (assigned || capturedUndefined);
+    }
+  }
+
+  Resolver(java.util.Set<String> assignedGlobals) {
+    this.assignedGlobals = assignedGlobals;
+  }
+
   // Statement visit methods
+  // A block declaring nothing needs no scope, any other one takes the next slots of the
+  // enclosing frame and gives them back when it ends. Only at the top level, with no frame
+  // around it, does a block get one of its own.
   @Override
   public Void visitBlockStmt(Stmt.Block block) {
-    beginScope();
+    if (block.statements.stream().noneMatch(Resolver::isDeclaration)) {
+      block.ownFrame = false;
+      resolve(block.statements);
+      return null;
+    }
+
+    block.ownFrame = scopes.isEmpty();
+    beginScope(!block.ownFrame);
     resolve(block.statements);
     endScope();
 
@@ -67,6 +140,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       resolve(var.initializer);
     }
     define(var.name);
+    bindDeclaration(var.name, var);
 
     return null;
   }
@@ -75,7 +149,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitFunctionStmt(Function fun) {
     declare(fun.name);
     define(fun.name);
+    bindDeclaration(fun.name, fun);
     resolveFunction(fun, FunctionType.FUNCTION);
+    markCapturedUndefined(fun.name);
 
     return null;
   }
@@ -87,6 +163,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     declare(classDecl.name);
     define(classDecl.name);
+    bindDeclaration(classDecl.name, classDecl);
     if (classDecl.superClass != null
         && classDecl.name.lexeme.equals(classDecl.superClass.name.lexeme)) {
       Lox.error(classDecl.superClass.name, "Class can not be a subclass of itself.");
@@ -95,13 +172,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (classDecl.superClass != null) {
       currentClassType = ClassType.SUBCLASS;
       resolve(classDecl.superClass);
-      beginScope();
-      scopes.peek().put("super", true);
+      beginScope(false);
+      defineImplicit("super");
     }
 
-    beginScope();
-    scopes.peek().put("this", true);
-
     for (Function func : classDecl.methods) {
       if ("init".equals(func.name.lexeme)) {
         resolveFunction(func, FunctionType.INITIALIZER);
@@ -110,11 +184,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       }
     }
 
-    endScope();
-
     if (classDecl.superClass != null) {
       endScope();
     }
+    markCapturedUndefined(classDecl.name);
 
     currentClassType = enclosure;
     return null;
@@ -122,6 +195,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitExpressionStmt(Expression expression) {
+    if (expression.expr instanceof Assignment) {
+      statementStore = (Assignment) expression.expr;
+    }
     resolve(expression.expr);
 
     return null;
@@ -131,8 +207,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitIfControlStmt(IfControl ifControl) {
     resolve(ifControl.cond);
     resolve(ifControl.thenBranch);
-    if (ifControl.thenBranch != null) {
-      resolve(ifControl.thenBranch);
+    if (ifControl.elseBranch != null) {
+      resolve(ifControl.elseBranch);
     }
 
     return null;
@@ -146,6 +222,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  // The loop gets a scope of its own for the initializer, taking slots like a block's
+  @Override
+  public Void visitForControlStmt(ForControl forControl) {
+    forControl.ownFrame = scopes.isEmpty();
+    beginScope(!forControl.ownFrame);
+    if (forControl.initializer != null) {
+      resolve(forControl.initializer);
+    }
+    resolve(forControl.cond);
+    resolve(forControl.body);
+
+    if (forControl.increment != null) {
+      resolve(forControl.increment);
+    }
+    endScope();
+
+    return null;
+  }
+
   @Override
   public Void visitReturnControlStmt(ReturnControl returnControl) {
     if (currentFunction == FunctionType.NONE) {
@@ -171,11 +266,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   // Expression visit methods
   @Override
   public Void visitVariableExpr(Variable var) {
-    if (!scopes.isEmpty() && scopes.peek().get(var.name.lexeme) == Boolean.FALSE) {
+    Local local = scopes.isEmpty() ? null : scopes.peek().get(var.name.lexeme);
+    if (local != null && !local.defined) {
       Lox.error(var.name, "Can't use local variable in its own initializer.");
     }
 
-    resolveLocal(var, var.name);
+    int scope = scopeOf(var.name.lexeme);
+    var.depth = depthOf(scope);
+
+    if (scope >= 0) {
+      Local target = scopes.get(scope).get(var.name.lexeme);
+      var.slot = slotOf(scope, target);
+      target.read = true;
+      target.captured |= isCaptured(scope);
+      target.refs.add(var);
+      localRefs.put(var, target);
+    } else if (currentFunction == FunctionType.NONE && globalDecls.get(var.name.lexeme) != null) {
+      globalRefs.put(var, globalDecls.get(var.name.lexeme));
+    }
 
     return null;
   }
@@ -183,7 +291,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitAssignmentExpr(Assignment assignment) {
     resolve(assignment.value);
-    resolveLocal(assignment, assignment.name);
+    int scope = scopeOf(assignment.name.lexeme);
+    assignment.depth = depthOf(scope);
+
+    if (scope >= 0) {
+      Local target = scopes.get(scope).get(assignment.name.lexeme);
+      assignment.slot = slotOf(scope, target);
+      target.assigned = true;
+      target.captured |= isCaptured(scope);
+      target.assignedInExpression |= assignment != statementStore;
+      target.refs.add(assignment);
+      localStores.put(assignment, target);
+    } else {
+      assignedGlobals.add(assignment.name.lexeme);
+    }
 
     return null;
   }
@@ -210,6 +331,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     resolve(binary.left);
     resolve(binary.right);
 
+    binary.numeric = producesNumber(binary);
+
     return null;
   }
 
@@ -248,6 +371,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitInlinedExpr(Inlined inlined) {
+    resolve(inlined.call);
+    return null;
+  }
+
+  @Override
+  public Void visitInvariantExpr(Invariant invariant) {
+    resolve(invariant.expr);
+    int scope = scopeOf(invariant.name.lexeme);
+    invariant.depth = depthOf(scope);
+    invariant.slot = slotOf(scope, scopes.get(scope).get(invariant.name.lexeme));
+    return null;
+  }
+
   @Override
   public Void visitGetExpr(Get get) {
     resolve(get.object);
@@ -268,7 +406,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       Lox.error(thiss.keyword, "Can't use 'this' outside of a class");
       return null;
     }
-    resolveLocal(thiss, thiss.keyword);
+    int scope = scopeOf("this");
+    thiss.depth = depthOf(scope);
+    thiss.slot = slotOf(scope, scopes.get(scope).get("this"));
     return null;
   }
 
@@ -279,19 +419,47 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     } else if (currentClassType == ClassType.CLASS) {
       Lox.error(superr.keyword, "Can't reference super without being a subclass.");
     } else {
-      resolveLocal(superr, superr.keyword);
+      int scope = scopeOf("super");
+      superr.depth = depthOf(scope);
+      superr.slot = slotOf(scope, scopes.get(scope).get("super"));
+
+      int self = scopeOf("this");
+      superr.thisDepth = depthOf(self);
+      superr.thisSlot = slotOf(self, scopes.get(self).get("this"));
     }
 
     return null;
   }
 
   // Scope stack management
-  private void beginScope() {
+  private void beginScope(boolean flattened) {
     scopes.push(new HashMap<>());
+    frames.push(flattened ? frames.peek() : new Frame());
   }
 
+  // A flattened scope's locals are the last slots of its frame, a later scope reuses them.
+  // Every reference has been resolved by now, so whether a local needs a box is known.
   private void endScope() {
-    scopes.pop();
+    for (Local local : scopes.peek().values()) {
+      boolean boxed = local.isBoxed();
+      for (Expr ref : local.refs) {
+        if (ref instanceof Variable) {
+          ((Variable) ref).boxed = boxed;
+        } else {
+          ((Assignment) ref).boxed = boxed;
+        }
+      }
+
+      if (local.declaration instanceof Var) {
+        ((Var) local.declaration).boxed = boxed;
+      } else if (local.declaration instanceof Function) {
+        ((Function) local.declaration).boxed = boxed;
+      } else if (local.declaration instanceof ClassDecl) {
+        ((ClassDecl) local.declaration).boxed = boxed;
+      }
+    }
+
+    frames.pop().size -= scopes.pop().size();
   }
 
   private void declare(Token name) {
@@ -299,13 +467,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       return;
     }
 
-    Map<String, Boolean> scope = scopes.peek();
+    Map<String, Local> scope = scopes.peek();
 
     if (scope.containsKey(name.lexeme)) {
       Lox.error(name, "There is already a variable with this name in this scope.");
     }
 
-    scope.put(name.lexeme, false);
+    scope.put(name.lexeme, new Local(frames.peek().size++));
   }
 
   private void define(Token name) {
@@ -313,7 +481,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       return;
     }
 
-    scopes.peek().put(name.lexeme, true);
+    scopes.peek().get(name.lexeme).defined = true;
+  }
+
+  private void defineImplicit(String name) {
+    Local local = new Local(frames.peek().size++);
+    local.defined = true;
+    scopes.peek().put(name, local);
   }
 
   // Resolvers
@@ -331,25 +505,183 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     expr.accept(this);
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  // Index of the innermost scope declaring a name, -1 for globals
+  private int scopeOf(String name) {
     for (int i = scopes.size() - 1; i >= 0; --i) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+      if (scopes.get(i).containsKey(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Number of frames between the reference and the given scope, -1 for globals. What the
+  // innermost function captured is one frame out from the function's own.
+  private int depthOf(int scope) {
+    if (scope < 0) {
+      return -1;
+    } else if (isCaptured(scope)) {
+      return framesBetween(scopes.size() - 1, functions.peek().scope) + 1;
+    }
+    return framesBetween(scopes.size() - 1, scope);
+  }
+
+  private int slotOf(int scope, Local local) {
+    return isCaptured(scope) ? capture(functions.size() - 1, scope, local) : local.slot;
+  }
+
+  private boolean isCaptured(int scope) {
+    return !functions.isEmpty() && scope < functions.peek().scope;
+  }
+
+  private int framesBetween(int inner, int outer) {
+    int frameCount = 0;
+    for (int i = inner; i > outer; --i) {
+      if (frames.get(i) != frames.get(i - 1)) {
+        frameCount++;
+      }
+    }
+    return frameCount;
+  }
+
+  // Index of a local among what a function captures, which takes it from the scope the
+  // function is declared in, or from what the enclosing function captured in turn
+  private int capture(int function, int scope, Local local) {
+    Closure closure = functions.get(function);
+    Integer index = closure.captures.get(local);
+    if (index != null) {
+      return index;
+    }
+
+    int declaredIn = closure.scope - 1;
+    if (function == 0 || scope >= functions.get(function - 1).scope) {
+      closure.depths.add(framesBetween(declaredIn, scope));
+      closure.slots.add(local.slot);
+    } else {
+      Closure enclosing = functions.get(function - 1);
+      int slot = capture(function - 1, scope, local);
+      closure.depths.add(framesBetween(declaredIn, enclosing.scope) + 1);
+      closure.slots.add(slot);
+    }
+
+    index = closure.captures.size();
+    closure.captures.put(local, index);
+    return index;
+  }
+
+  private static boolean isDeclaration(Stmt stmt) {
+    return stmt instanceof Var || stmt instanceof Function || stmt instanceof ClassDecl;
+  }
+
+  // Records the declaration a name refers to from here on
+  private void bindDeclaration(Token name, Stmt declaration) {
+    Var var = declaration instanceof Var ? (Var) declaration : null;
+    if (scopes.isEmpty()) {
+      globalDecls.put(name.lexeme, var);
+    } else {
+      Local local = scopes.peek().get(name.lexeme);
+      local.declaration = declaration;
+      if (var != null) {
+        localDecls.put(var, local);
       }
     }
   }
 
+  // A function or class captures its own name before the binding is defined
+  private void markCapturedUndefined(Token name) {
+    if (!scopes.isEmpty()) {
+      Local local = scopes.peek().get(name.lexeme);
+      local.capturedUndefined = local.captured;
+    }
+  }
+
+  // Whether a statement storing into a local has no effect on the program, nothing reads it
+  boolean isDeadStore(Assignment assignment) {
+    Local local = localStores.get(assignment);
+    return local != null && !local.read;
+  }
+
+  // Whether a local var could be left out along with the statements storing into it
+  boolean isDeadDeclaration(Var var) {
+    Local local = localDecls.get(var);
+    return local != null && !local.read && !local.assignedInExpression;
+  }
+
+  // Whether a reference reads a local that is never assigned after its declaration
+  boolean readsUnassignedLocal(Variable variable) {
+    Local local = localRefs.get(variable);
+    return local != null && !local.assigned;
+  }
+
+  boolean isAssignedGlobal(String name) {
+    return assignedGlobals.contains(name);
+  }
+
+  // The declaration a reference reads, provided nothing can assign the variable after its
+  // initializer ran
+  Var constantDeclaration(Variable variable) {
+    Local local = localRefs.get(variable);
+    if (local != null) {
+      return local.assigned || !(local.declaration instanceof Var) ? null : (Var) local.declaration;
+    }
+
+    Var decl = globalRefs.get(variable);
+    return decl == null || assignedGlobals.contains(decl.name.lexeme) ? null : decl;
+  }
+
+  static boolean producesNumber(Binary binary) {
+    switch (binary.operator.type) {
+      case MINUS:
+      case STAR:
+      case SLASH:
+        return true;
+      case PLUS:
+        return isNumeric(binary.left) && isNumeric(binary.right);
+      default:
+        return false;
+    }
+  }
+
+  // Whether an expression always evaluates to a number unless it fails with an error
+  static boolean isNumeric(Expr expr) {
+    if (expr instanceof Literal) {
+      return ((Literal) expr).value instanceof Double;
+    } else if (expr instanceof Grouping) {
+      return isNumeric(((Grouping) expr).expression);
+    } else if (expr instanceof Unary) {
+      return ((Unary) expr).operator.type == TokenType.MINUS;
+    } else if (expr instanceof Binary) {
+      return ((Binary) expr).numeric;
+    }
+    return false;
+  }
+
   private void resolveFunction(Function func, FunctionType type) {
     FunctionType enclosingFunc = currentFunction;
     currentFunction = type;
-    beginScope();
+    beginScope(false);
+    Closure closure = new Closure(scopes.size() - 1);
+    functions.push(closure);
+    // Methods receive their instance in slot 0 of their own frame
+    if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+      defineImplicit("this");
+    }
     for (Token param : func.params) {
       declare(param);
       define(param);
     }
     resolve(func.body);
+
+    func.boxedSlots =
+        func.params.stream()
+            .map(param -> scopes.peek().get(param.lexeme))
+            .filter(Local::isBoxed)
+            .mapToInt(local -> local.slot)
+            .toArray();
     endScope();
+    functions.pop();
+    func.captureDepths = closure.depths.stream().mapToInt(Integer::intValue).toArray();
+    func.captureSlots = closure.slots.stream().mapToInt(Integer::intValue).toArray();
     currentFunction = enclosingFunc;
   }
 }
@@ -1,32 +1,76 @@
 package com.iind.lox;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+// Scans UTF-8 source bytes, as mapped from a file, without decoding them to a String first.
+// Everything but string literals and comments is ASCII, so offsets count bytes and only string
+// literals are ever decoded.
 public class Scanner {
+  // Keywords by a perfect hash of their first and last character and length, see keywordHash
+  private static final int KEYWORD_MASK = 31;
+  private static final String[] KEYWORD_NAMES = new String[KEYWORD_MASK + 1];
+  private static final TokenType[] KEYWORD_TYPES = new TokenType[KEYWORD_MASK + 1];
+
+  static {
+    for (Map.Entry<String, TokenType> keyword : TokenType.KEYWORDS.entrySet()) {
+      String name = keyword.getKey();
+      int hash = keywordHash(name.charAt(0), name.charAt(name.length() - 1), name.length());
+      if (KEYWORD_NAMES[hash] != null) {
+        throw new IllegalStateException("Keyword hash collision for " + name);
+      }
+      KEYWORD_NAMES[hash] = name;
+      KEYWORD_TYPES[hash] = keyword.getValue();
+    }
+  }
 
   // The Input
-  final String source;
+  final ByteBuffer source;
+  private final int length;
 
   // The Output
-  final List<Token> tokens = new ArrayList<>();
+  final Tokens tokens;
+  // Errors of a chunk, reported once every chunk before it has reported its own
+  private final List<Runnable> errors;
 
   // Scanner Processing State
   private int start;
   private int current;
   private int line = 1;
 
-  public Scanner(String source) {
+  public Scanner(ByteBuffer source) {
     this.source = source;
+    this.length = source.limit();
+    this.tokens = new Tokens(source);
+    this.errors = null;
   }
 
-  public List<Token> scanTokens() {
-    while (!isAtEnd()) {
-      start = current;
-      scanToken();
+  // Scans the bytes from start to end, starting on the given line
+  private Scanner(ByteBuffer source, int start, int end, int line) {
+    this.source = source;
+    this.length = end;
+    this.tokens = new Tokens(source);
+    this.errors = new ArrayList<>();
+    this.current = start;
+    this.line = line;
+  }
+
+  public Scanner(String source) {
+    this(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  public Tokens scanTokens() {
+    int chunkSize = Lox.OPTIONS.scanChunkSize;
+    if (chunkSize > 0 && length > chunkSize) {
+      scanChunks(chunkSize);
+    } else {
+      scanAll();
     }
 
-    tokens.add(new Token(TokenType.EOF, "", null, line));
+    tokens.add(TokenType.EOF, length, length, line, null);
 
     if (Lox.OPTIONS.scannerDebug) {
       debug();
@@ -35,6 +79,96 @@ public class Scanner {
     return tokens;
   }
 
+  private void scanAll() {
+    while (!isAtEnd()) {
+      start = current;
+      scanToken();
+    }
+  }
+
+  // Scans the chunks on the common ForkJoinPool and appends their tokens and errors in order,
+  // which gives the same result as scanning the whole source at once
+  private void scanChunks(int chunkSize) {
+    List<Scanner> chunks = split(chunkSize);
+    chunks.parallelStream().forEach(Scanner::scanAll);
+
+    for (Scanner chunk : chunks) {
+      chunk.errors.forEach(Runnable::run);
+      tokens.append(chunk.tokens);
+      line = chunk.line;
+    }
+  }
+
+  // A chunk ends just after a newline the scanner reaches between tokens, at least chunkSize
+  // bytes after the chunk's start. Strings and comments are skipped exactly as the scanner
+  // skips them, counting lines the same way, so each chunk knows the line it starts on.
+  private List<Scanner> split(int chunkSize) {
+    List<Scanner> chunks = new ArrayList<>();
+    int chunkStart = 0;
+    int chunkLine = 1;
+    int i = 0;
+    int atLine = 1;
+    while (i < length) {
+      switch (source.get(i++)) {
+        case '\n':
+          atLine++;
+          if (i - chunkStart >= chunkSize && i < length) {
+            chunks.add(new Scanner(source, chunkStart, i, chunkLine));
+            chunkStart = i;
+            chunkLine = atLine;
+          }
+          break;
+        case '"':
+          while (i < length && source.get(i) != '"') {
+            if (source.get(i++) == '\n') {
+              atLine++;
+            }
+          }
+          i++;
+          break;
+        case '/':
+          if (byteAt(i) == '/') {
+            while (i < length && source.get(i) != '\n') {
+              i++;
+            }
+          } else if (byteAt(i) == '*') {
+            i++;
+            boolean complete = true;
+            while (byteAt(i) != '*' && byteAt(i + 1) != '/') {
+              if (i >= length) {
+                complete = false;
+                break;
+              }
+              if (source.get(i++) == '\n') {
+                atLine++;
+              }
+            }
+            if (complete) {
+              i += 2;
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    chunks.add(new Scanner(source, chunkStart, length, chunkLine));
+    return chunks;
+  }
+
+  private int byteAt(int offset) {
+    return offset < length ? source.get(offset) : 0;
+  }
+
+  private void error(String message) {
+    if (errors == null) {
+      Lox.error(line, message);
+    } else {
+      int at = line;
+      errors.add(() -> Lox.error(at, message));
+    }
+  }
+
   private void scanToken() {
     char c = advance();
     switch (c) {
@@ -119,27 +253,32 @@ public class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected Token found!");
+          error("Unexpected Token found!");
+          // One error for a character however many bytes encode it
+          while ((peek() & 0xc0) == 0x80) {
+            current++;
+          }
         }
         break;
     }
   }
 
   // SOURCE PROCESSING METHODS
+  // Bytes past ASCII come out as chars above 0x7f, which match nothing the scanner looks for
   private char peek() {
-    return isAtEnd() ? '\0' : source.charAt(current);
+    return isAtEnd() ? '\0' : (char) (source.get(current) & 0xff);
   }
 
   private char peekNext() {
-    return current + 1 >= source.length() ? '\0' : source.charAt(current + 1);
+    return current + 1 >= length ? '\0' : (char) (source.get(current + 1) & 0xff);
   }
 
   private char advance() {
-    return source.charAt(current++);
+    return (char) (source.get(current++) & 0xff);
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= length;
   }
 
   private boolean match(char m) {
@@ -171,8 +310,7 @@ public class Scanner {
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.add(type, start, current, line, literal);
   }
 
   private void singleLineComment() {
@@ -188,7 +326,7 @@ public class Scanner {
           line++;
         }
       } else {
-        Lox.error(line, "Unterminated multi-line comment");
+        error("Unterminated multi-line comment");
         complete = false;
         break;
       }
@@ -208,12 +346,12 @@ public class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated String");
+      error("Unterminated String");
       return;
     }
 
     advance(); // Last "
-    addToken(TokenType.STRING, source.substring(start + 1, current - 1));
+    addToken(TokenType.STRING, Tokens.decode(source, start + 1, current - 1));
   }
 
   private void number() {
@@ -226,7 +364,7 @@ public class Scanner {
       }
     }
 
-    addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+    addToken(TokenType.NUMBER, Double.parseDouble(Tokens.decode(source, start, current)));
   }
 
   private void identifier() {
@@ -234,10 +372,26 @@ public class Scanner {
       advance();
     }
 
-    String text = source.substring(start, current);
-    TokenType type = TokenType.KEYWORDS.getOrDefault(text, TokenType.IDENTIFIER);
+    addToken(keyword());
+  }
 
-    addToken(type);
+  private static int keywordHash(char first, char last, int length) {
+    return (first + 5 * last + length) & KEYWORD_MASK;
+  }
+
+  private TokenType keyword() {
+    int length = current - start;
+    int hash = keywordHash((char) source.get(start), (char) source.get(current - 1), length);
+    String name = KEYWORD_NAMES[hash];
+    if (name == null || name.length() != length) {
+      return TokenType.IDENTIFIER;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (source.get(start + i) != name.charAt(i)) {
+        return TokenType.IDENTIFIER;
+      }
+    }
+    return KEYWORD_TYPES[hash];
   }
 
   private void debug() {
@@ -247,9 +401,10 @@ public class Scanner {
 
   private void outputByStmt() {
     TokenType prev = TokenType.EOF;
-    for (Token token : tokens) {
+    for (int i = 0; i < tokens.size(); ++i) {
+      TokenType type = tokens.type(i);
       String fmt = " %s,";
-      switch (token.type) {
+      switch (type) {
         case SEMICOLON:
           fmt = " %s%n";
           break;
@@ -262,8 +417,8 @@ public class Scanner {
           }
           break;
       }
-      System.out.printf(fmt, token.type);
-      prev = token.type;
+      System.out.printf(fmt, type);
+      prev = type;
     }
     System.out.println();
   }
@@ -0,0 +1,41 @@
+package com.iind.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class shared by the instances of one LoxClass that added the same fields in the same
+// order. It maps field names to indexes into the instance's value array, and adding a field
+// follows a cached transition so instances built alike end up sharing one shape.
+final class Shape {
+  private final Map<String, Integer> slots;
+  private final Map<String, Shape> transitions = new HashMap<>();
+  final LoxClass xlass;
+  final int size;
+
+  Shape(LoxClass xlass) {
+    this.xlass = xlass;
+    this.slots = new HashMap<>();
+    this.size = 0;
+  }
+
+  private Shape(Shape parent, String name) {
+    this.xlass = parent.xlass;
+    this.slots = new HashMap<>(parent.slots);
+    this.slots.put(name, parent.size);
+    this.size = parent.size + 1;
+  }
+
+  int slotOf(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  Shape withField(String name) {
+    Shape next = transitions.get(name);
+    if (next == null) {
+      next = new Shape(this, name);
+      transitions.put(name, next);
+    }
+    return next;
+  }
+}
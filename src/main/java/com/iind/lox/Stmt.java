@@ -14,6 +14,7 @@ public abstract class Stmt {
     R visitClassDeclStmt(ClassDecl classDecl);
     R visitBlockStmt(Block block);
     R visitPrintStmt(Print print);
+    R visitForControlStmt(ForControl forControl);
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -77,6 +78,7 @@ public abstract class Stmt {
   static class Var extends Stmt {
     final Token name;
     final Expr initializer;
+    boolean boxed;
 
     Var(Token name, Expr initializer) {
       this.name = name;
@@ -92,6 +94,10 @@ public abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    boolean boxed;
+    int[] boxedSlots = new int[0];
+    int[] captureDepths = new int[0];
+    int[] captureSlots = new int[0];
 
     Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
@@ -108,6 +114,7 @@ public abstract class Stmt {
     final Token name;
     final Expr.Variable superClass;
     final List<Function> methods;
+    boolean boxed;
 
     ClassDecl(Token name, Expr.Variable superClass, List<Function> methods) {
       this.name = name;
@@ -122,6 +129,7 @@ public abstract class Stmt {
 
   static class Block extends Stmt {
     final List<Stmt> statements;
+    boolean ownFrame = true;
 
     Block(List<Stmt> statements) {
       this.statements = statements;
@@ -144,4 +152,23 @@ public abstract class Stmt {
     }
   }
 
+  static class ForControl extends Stmt {
+    final Stmt initializer;
+    final Expr cond;
+    final Expr increment;
+    final Stmt body;
+    boolean ownFrame = true;
+
+    ForControl(Stmt initializer, Expr cond, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.cond = cond;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForControlStmt(this);
+    }
+  }
+
 }
@@ -0,0 +1,328 @@
+package com.iind.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Executable statement nodes. Declarations at the top level are bound by name in the globals
+// they are given, everywhere else they take the next slot of the current frame.
+abstract class StmtNode extends Node {
+  abstract void execute(Environment frame);
+
+  static void define(Environment frame, Globals globals, Token name, Object value) {
+    if (globals != null) {
+      globals.define(name.lexeme, value);
+    } else {
+      frame.define(value);
+    }
+  }
+
+  static class Expression extends StmtNode {
+    ExprNode expr;
+
+    Expression(ExprNode expr) {
+      this.expr = adopt(expr);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      expr.execute(frame);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      expr = swap(expr, oldChild, newChild);
+    }
+  }
+
+  static class Print extends StmtNode {
+    ExprNode expr;
+
+    Print(ExprNode expr) {
+      this.expr = adopt(expr);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      Object value = expr.execute(frame);
+
+      if (!Lox.OPTIONS.silentMode) {
+        System.out.println(Interpreter.stringify(value));
+      }
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      expr = swap(expr, oldChild, newChild);
+    }
+  }
+
+  static class Var extends StmtNode {
+    final Token name;
+    final Globals globals;
+    final boolean boxed;
+    ExprNode initializer;
+
+    Var(Token name, Globals globals, boolean boxed, ExprNode initializer) {
+      this.name = name;
+      this.globals = globals;
+      this.boxed = boxed;
+      this.initializer = adopt(initializer);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      Object value = initializer != null ? initializer.execute(frame) : null;
+      define(frame, globals, name, boxed ? new Environment.Box(value) : value);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      initializer = swap(initializer, oldChild, newChild);
+    }
+  }
+
+  static class Block extends StmtNode {
+    final StmtNode[] statements;
+    // Otherwise the block's locals take the next slots of the enclosing frame
+    final boolean ownFrame;
+
+    Block(StmtNode[] statements, boolean ownFrame) {
+      this.statements = adopt(statements);
+      this.ownFrame = ownFrame;
+    }
+
+    @Override
+    void execute(Environment frame) {
+      if (ownFrame) {
+        executeIn(new Environment(frame));
+        return;
+      }
+
+      // A return leaves the whole frame, only a normal exit gives the slots back
+      int size = frame.size();
+      executeIn(frame);
+      frame.truncate(size);
+    }
+
+    private void executeIn(Environment scope) {
+      for (StmtNode statement : statements) {
+        statement.execute(scope);
+      }
+    }
+  }
+
+  static class If extends StmtNode {
+    ExprNode cond;
+    final StmtNode thenBranch;
+    final StmtNode elseBranch;
+
+    If(ExprNode cond, StmtNode thenBranch, StmtNode elseBranch) {
+      this.cond = adopt(cond);
+      this.thenBranch = adopt(thenBranch);
+      this.elseBranch = adopt(elseBranch);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      if (Interpreter.isTruthy(cond.execute(frame))) {
+        thenBranch.execute(frame);
+      } else if (elseBranch != null) {
+        elseBranch.execute(frame);
+      }
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      cond = swap(cond, oldChild, newChild);
+    }
+  }
+
+  static class While extends StmtNode {
+    ExprNode cond;
+    final StmtNode body;
+
+    While(ExprNode cond, StmtNode body) {
+      this.cond = adopt(cond);
+      this.body = adopt(body);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      while (Interpreter.isTruthy(cond.execute(frame))) {
+        body.execute(frame);
+      }
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      cond = swap(cond, oldChild, newChild);
+    }
+  }
+
+  static class For extends StmtNode {
+    final StmtNode initializer;
+    ExprNode cond;
+    ExprNode increment;
+    final StmtNode body;
+    final boolean ownFrame;
+
+    For(
+        StmtNode initializer,
+        ExprNode cond,
+        ExprNode increment,
+        StmtNode body,
+        boolean ownFrame) {
+      this.initializer = adopt(initializer);
+      this.cond = adopt(cond);
+      this.increment = adopt(increment);
+      this.body = adopt(body);
+      this.ownFrame = ownFrame;
+    }
+
+    @Override
+    void execute(Environment frame) {
+      int size = frame.size();
+      Environment scope = ownFrame ? new Environment(frame) : frame;
+      if (initializer != null) {
+        initializer.execute(scope);
+      }
+
+      while (Interpreter.isTruthy(cond.execute(scope))) {
+        body.execute(scope);
+        if (increment != null) {
+          increment.execute(scope);
+        }
+      }
+      frame.truncate(size);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      cond = swap(cond, oldChild, newChild);
+      increment = swap(increment, oldChild, newChild);
+    }
+  }
+
+  static class ReturnControl extends StmtNode {
+    ExprNode res;
+
+    ReturnControl(ExprNode res) {
+      this.res = adopt(res);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      throw new Return(res != null ? res.execute(frame) : null);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      res = swap(res, oldChild, newChild);
+    }
+  }
+
+  // Declaration of a function or method, shared by every closure created from it
+  static class Function extends StmtNode {
+    final Token name;
+    final Globals globals;
+    final boolean boxed;
+    final int arity;
+    final int[] boxedSlots;
+    final int[] captureDepths;
+    final int[] captureSlots;
+    final StmtNode[] body;
+
+    Function(Stmt.Function decl, Globals globals, StmtNode[] body) {
+      this.name = decl.name;
+      this.globals = globals;
+      this.boxed = decl.boxed;
+      this.arity = decl.params.size();
+      this.boxedSlots = decl.boxedSlots;
+      this.captureDepths = decl.captureDepths;
+      this.captureSlots = decl.captureSlots;
+      this.body = adopt(body);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      // A function calling itself captures its own name, which needs its box before it exists
+      if (boxed) {
+        Environment.Box box = new Environment.Box(null);
+        frame.define(box);
+        box.value = newFunction(frame, false);
+      } else {
+        define(frame, globals, name, newFunction(frame, false));
+      }
+    }
+
+    NodeFunction newFunction(Environment frame, boolean isInitializer) {
+      return new NodeFunction(this, frame.capture(captureDepths, captureSlots), isInitializer);
+    }
+  }
+
+  static class ClassDecl extends StmtNode {
+    final Token name;
+    final Globals globals;
+    final boolean boxed;
+    final Token superName;
+    ExprNode superClass;
+    final Function[] methods;
+
+    ClassDecl(
+        Token name,
+        Globals globals,
+        boolean boxed,
+        Token superName,
+        ExprNode superClass,
+        Function[] methods) {
+      this.name = name;
+      this.globals = globals;
+      this.boxed = boxed;
+      this.superName = superName;
+      this.superClass = adopt(superClass);
+      this.methods = adopt(methods);
+    }
+
+    @Override
+    void execute(Environment frame) {
+      Object superValue = null;
+      if (superClass != null) {
+        superValue = superClass.execute(frame);
+        if (!(superValue instanceof LoxClass)) {
+          throw new RuntimeError(superName, "Super class must be a class.");
+        }
+      }
+
+      // Methods that capture the class's own name need its box before they exist
+      Environment.Box box = null;
+      if (boxed) {
+        box = new Environment.Box(null);
+        frame.define(box);
+      }
+
+      Environment scope = frame;
+      if (superClass != null) {
+        scope = new Environment(frame);
+        scope.define(superValue);
+      }
+
+      Map<String, LoxMethod> table = new HashMap<>();
+      for (Function method : methods) {
+        boolean isInitializer = "init".equals(method.name.lexeme);
+        table.put(method.name.lexeme, method.newFunction(scope, isInitializer));
+      }
+
+      LoxClass xlass = new LoxClass(name.lexeme, (LoxClass) superValue, table);
+      if (box != null) {
+        box.value = xlass;
+      } else {
+        define(frame, globals, name, xlass);
+      }
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+      superClass = swap(superClass, oldChild, newChild);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.iind.lox;
+
+import java.nio.ByteBuffer;
+
+// One canonical String for every name read from a source, shared by all its tokens spelling it.
+// Tables keyed by name, from globals to fields and methods, then find their keys by identity
+// before comparing characters, and building a token for a name seen before allocates nothing.
+// The table belongs to the Tokens of one source, so the names go away with the program.
+final class Symbols {
+  // Names the Java code spells itself, so their tokens share the String of those literals
+  private static final String[] PREDEFINED = {"init", "this", "super", "clock"};
+
+  private String[] table = new String[64];
+  private int count;
+
+  Symbols() {
+    for (String name : PREDEFINED) {
+      add(name);
+    }
+  }
+
+  // The ASCII characters of source from start to end as a symbol, hashed like a String
+  String intern(ByteBuffer source, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; ++i) {
+      hash = 31 * hash + source.get(i);
+    }
+
+    int length = end - start;
+    int mask = table.length - 1;
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      String symbol = table[i];
+      if (symbol == null) {
+        symbol = Tokens.decode(source, start, end);
+        table[i] = symbol;
+        if (++count * 4 > table.length * 3) {
+          grow();
+        }
+        return symbol;
+      }
+      if (symbol.hashCode() == hash
+          && symbol.length() == length
+          && matches(source, start, symbol)) {
+        return symbol;
+      }
+    }
+  }
+
+  private static boolean matches(ByteBuffer source, int start, String symbol) {
+    for (int i = 0; i < symbol.length(); ++i) {
+      if (source.get(start + i) != symbol.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void add(String symbol) {
+    int mask = table.length - 1;
+    int i = symbol.hashCode() & mask;
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+    table[i] = symbol;
+    count++;
+  }
+
+  private void grow() {
+    String[] old = table;
+    table = new String[old.length * 2];
+    count = 0;
+    for (String symbol : old) {
+      if (symbol != null) {
+        add(symbol);
+      }
+    }
+  }
+}
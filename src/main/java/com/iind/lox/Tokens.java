@@ -0,0 +1,126 @@
+package com.iind.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// The Scanner's output kept in columns rather than one object per token: the type, where the
+// lexeme is in the source and the line. Literals go to a side table ordered by token index.
+// The Parser asks for a Token only where the AST keeps one, and gets the same one every time
+// it asks for the same index.
+final class Tokens {
+  private static final int INITIAL_SIZE = 256;
+  private static final TokenType[] TYPES = TokenType.values();
+
+  final ByteBuffer source;
+  private byte[] types = new byte[INITIAL_SIZE];
+  private int[] starts = new int[INITIAL_SIZE];
+  private int[] lengths = new int[INITIAL_SIZE];
+  private int[] lines = new int[INITIAL_SIZE];
+  private int count;
+
+  private int[] literalTokens = new int[16];
+  private Object[] literals = new Object[16];
+  private int literalCount;
+
+  // Tokens handed out so far, by index, and the names they spell
+  private Token[] built = new Token[0];
+  private final Symbols symbols = new Symbols();
+
+  Tokens(ByteBuffer source) {
+    this.source = source;
+  }
+
+  void add(TokenType type, int start, int end, int line, Object literal) {
+    ensureCapacity(count + 1);
+    if (literal != null) {
+      ensureLiteralCapacity(literalCount + 1);
+      literalTokens[literalCount] = count;
+      literals[literalCount++] = literal;
+    }
+
+    types[count] = (byte) type.ordinal();
+    starts[count] = start;
+    lengths[count] = end - start;
+    lines[count] = line;
+    count++;
+  }
+
+  // Appends the tokens of a chunk of the same source scanned on its own
+  void append(Tokens chunk) {
+    ensureCapacity(count + chunk.count);
+    System.arraycopy(chunk.types, 0, types, count, chunk.count);
+    System.arraycopy(chunk.starts, 0, starts, count, chunk.count);
+    System.arraycopy(chunk.lengths, 0, lengths, count, chunk.count);
+    System.arraycopy(chunk.lines, 0, lines, count, chunk.count);
+
+    ensureLiteralCapacity(literalCount + chunk.literalCount);
+    for (int i = 0; i < chunk.literalCount; ++i) {
+      literalTokens[literalCount] = count + chunk.literalTokens[i];
+      literals[literalCount++] = chunk.literals[i];
+    }
+    count += chunk.count;
+  }
+
+  private void ensureCapacity(int size) {
+    if (size > types.length) {
+      int capacity = Math.max(size, types.length * 2);
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+    }
+  }
+
+  private void ensureLiteralCapacity(int size) {
+    if (size > literals.length) {
+      int capacity = Math.max(size, literals.length * 2);
+      literalTokens = Arrays.copyOf(literalTokens, capacity);
+      literals = Arrays.copyOf(literals, capacity);
+    }
+  }
+
+  int size() {
+    return count;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  Object literal(int index) {
+    int i = Arrays.binarySearch(literalTokens, 0, literalCount, index);
+    return i >= 0 ? literals[i] : null;
+  }
+
+  Token token(int index) {
+    if (index >= built.length) {
+      built = Arrays.copyOf(built, Math.max(count, index + 1));
+    }
+    Token token = built[index];
+    if (token == null) {
+      token = built[index] = build(index);
+    }
+    return token;
+  }
+
+  boolean isBuilt(int index) {
+    return index < built.length && built[index] != null;
+  }
+
+  // Names and operators get their symbol, literals a lexeme of their own
+  private Token build(int index) {
+    int start = starts[index];
+    int end = start + lengths[index];
+    Object literal = literal(index);
+    String lexeme =
+        literal == null ? symbols.intern(source, start, end) : decode(source, start, end);
+    return new Token(type(index), lexeme, literal, lines[index]);
+  }
+
+  static String decode(ByteBuffer source, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    source.get(start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
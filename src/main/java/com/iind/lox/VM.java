@@ -0,0 +1,678 @@
+package com.iind.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stack based virtual machine executing the bytecode produced by the Compiler
+public class VM {
+  private static final int FRAMES_MAX = 1 << 14;
+  private static final Double ZERO = Double.valueOf(0);
+
+  final Globals globals = new Globals();
+
+  private Object[] stack = new Object[256];
+  private int sp;
+  private CallFrame[] frames = new CallFrame[64];
+  private int frameCount;
+  private Upvalue openUpvalues;
+
+  VM() {
+    Natives.define(globals);
+  }
+
+  private static class CallFrame {
+    Closure closure;
+    int ip;
+    int base;
+  }
+
+  static class Upvalue {
+    final int slot;
+    Object closed;
+    boolean open = true;
+    Upvalue next;
+
+    Upvalue(int slot) {
+      this.slot = slot;
+    }
+  }
+
+  static class Closure implements LoxMethod {
+    final VM vm;
+    final VMFunction function;
+    final Upvalue[] upvalues;
+
+    Closure(VM vm, VMFunction function) {
+      this.vm = vm;
+      this.function = function;
+      this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public int arity() {
+      return function.arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+      return call(interpreter, args.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] args) {
+      return vm.callFromHost(this, this, args);
+    }
+
+    @Override
+    public LoxCallable bind(LoxInstance instance) {
+      return new BoundMethod(instance, this);
+    }
+
+    @Override
+    public String toString() {
+      return function.toString();
+    }
+  }
+
+  static class BoundMethod implements LoxCallable {
+    final LoxInstance receiver;
+    final Closure method;
+
+    BoundMethod(LoxInstance receiver, Closure method) {
+      this.receiver = receiver;
+      this.method = method;
+    }
+
+    @Override
+    public int arity() {
+      return method.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+      return call(interpreter, args.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] args) {
+      return method.vm.callFromHost(method, receiver, args);
+    }
+
+    @Override
+    public String toString() {
+      return method.toString();
+    }
+  }
+
+  void interpret(List<Stmt> statements) {
+    VMFunction script = new Compiler(globals).compile(statements);
+    if (Lox.hadError) {
+      return;
+    }
+
+    if (Lox.OPTIONS.interpreterDebug) {
+      script.chunk.disassemble(script.toString(), globals);
+    }
+
+    try {
+      Closure closure = new Closure(this, script);
+      push(closure);
+      call(closure, 0);
+      run(0);
+    } catch (RuntimeError e) {
+      Lox.runtimeError(e);
+    } finally {
+      Arrays.fill(stack, 0, sp, null);
+      sp = 0;
+      frameCount = 0;
+      openUpvalues = null;
+    }
+  }
+
+  private Object callFromHost(Closure closure, Object receiver, Object[] args) {
+    push(receiver);
+    for (Object arg : args) {
+      push(arg);
+    }
+    call(closure, args.length);
+    return run(frameCount - 1);
+  }
+
+  // Runs until the frame count drops back to exitDepth and returns the value of that frame
+  private Object run(int exitDepth) {
+    CallFrame frame = frames[frameCount - 1];
+    Chunk chunk = frame.closure.function.chunk;
+    byte[] code = chunk.code;
+    List<Object> constants = chunk.constants;
+    int ip = frame.ip;
+    int base = frame.base;
+
+    // The stack and its pointer are kept in locals, they are written back to the fields
+    // before anything that can observe or grow the stack from outside this loop.
+    Object[] stack = this.stack;
+    int sp = this.sp;
+
+    for (; ; ) {
+      byte op = code[ip++];
+      switch (op) {
+        case OpCode.CONSTANT:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = constants.get(readShort(code, ip));
+          ip += 2;
+          break;
+        case OpCode.CONSTANT_LONG:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = constants.get(readMedium(code, ip));
+          ip += 3;
+          break;
+        case OpCode.NIL:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = null;
+          break;
+        case OpCode.TRUE:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = Boolean.TRUE;
+          break;
+        case OpCode.FALSE:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = Boolean.FALSE;
+          break;
+        case OpCode.POP:
+          sp--;
+          break;
+        case OpCode.GET_LOCAL:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = stack[base + (code[ip++] & 0xff)];
+          break;
+        case OpCode.SET_LOCAL:
+          stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+          break;
+        case OpCode.GET_LOCAL_LONG:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = stack[base + readShort(code, ip)];
+          ip += 2;
+          break;
+        case OpCode.SET_LOCAL_LONG:
+          stack[base + readShort(code, ip)] = stack[sp - 1];
+          ip += 2;
+          break;
+        case OpCode.GET_GLOBAL:
+          if (sp == stack.length) {
+            stack = grow();
+          }
+          stack[sp++] = globals.get(readShort(code, ip), chunk.lines[ip - 1]);
+          ip += 2;
+          break;
+        case OpCode.DEFINE_GLOBAL:
+          globals.define(readShort(code, ip), stack[--sp]);
+          ip += 2;
+          break;
+        case OpCode.SET_GLOBAL:
+          globals.assign(readShort(code, ip), stack[sp - 1], chunk.lines[ip - 1]);
+          ip += 2;
+          break;
+        case OpCode.GET_UPVALUE:
+          {
+            Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+            if (sp == stack.length) {
+              stack = grow();
+            }
+            stack[sp++] = upvalue.open ? stack[upvalue.slot] : upvalue.closed;
+            break;
+          }
+        case OpCode.SET_UPVALUE:
+          {
+            Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+            if (upvalue.open) {
+              stack[upvalue.slot] = stack[sp - 1];
+            } else {
+              upvalue.closed = stack[sp - 1];
+            }
+            break;
+          }
+        case OpCode.GET_UPVALUE_LONG:
+          {
+            Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+            ip += 2;
+            if (sp == stack.length) {
+              stack = grow();
+            }
+            stack[sp++] = upvalue.open ? stack[upvalue.slot] : upvalue.closed;
+            break;
+          }
+        case OpCode.SET_UPVALUE_LONG:
+          {
+            Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+            ip += 2;
+            if (upvalue.open) {
+              stack[upvalue.slot] = stack[sp - 1];
+            } else {
+              upvalue.closed = stack[sp - 1];
+            }
+            break;
+          }
+        case OpCode.GET_PROPERTY:
+          {
+            Token name = (Token) constants.get(readMedium(code, ip));
+            ip += 3;
+            Object object = stack[sp - 1];
+            if (!(object instanceof LoxInstance)) {
+              throw new RuntimeError(name, "Only class instances have properties.");
+            }
+            stack[sp - 1] = ((LoxInstance) object).get(name);
+            break;
+          }
+        case OpCode.SET_PROPERTY:
+          {
+            Token name = (Token) constants.get(readMedium(code, ip));
+            ip += 3;
+            Object value = stack[--sp];
+            Object object = stack[--sp];
+            if (!(object instanceof LoxInstance)) {
+              throw new RuntimeError(name, "Only class instance have properties.");
+            }
+            ((LoxInstance) object).set(name, value);
+            stack[sp++] = value;
+            break;
+          }
+        case OpCode.GET_SUPER:
+          {
+            Token name = (Token) constants.get(readMedium(code, ip));
+            ip += 3;
+            LoxClass superClass = (LoxClass) stack[--sp];
+            LoxInstance object = (LoxInstance) stack[--sp];
+            LoxMethod method = superClass.findMethod(name.lexeme);
+            if (method == null) {
+              throw new RuntimeError(
+                  name, String.format("Undefinded property '%s'.", name.lexeme));
+            }
+            stack[sp++] = method.bind(object);
+            break;
+          }
+        case OpCode.EQUAL:
+          {
+            Object b = stack[--sp];
+            stack[sp - 1] = isEqual(stack[sp - 1], b);
+            break;
+          }
+        case OpCode.NOT_EQUAL:
+          {
+            Object b = stack[--sp];
+            stack[sp - 1] = !isEqual(stack[sp - 1], b);
+            break;
+          }
+        case OpCode.GREATER:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          stack[sp - 1] = (double) stack[sp - 1] > (double) stack[sp];
+          break;
+        case OpCode.GREATER_EQUAL:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          stack[sp - 1] = (double) stack[sp - 1] >= (double) stack[sp];
+          break;
+        case OpCode.LESS:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          stack[sp - 1] = (double) stack[sp - 1] < (double) stack[sp];
+          break;
+        case OpCode.LESS_EQUAL:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          stack[sp - 1] = (double) stack[sp - 1] <= (double) stack[sp];
+          break;
+        case OpCode.ADD:
+          {
+            Object b = stack[--sp];
+            Object a = stack[sp - 1];
+            if (a instanceof Double && b instanceof Double) {
+              stack[sp - 1] = (double) a + (double) b;
+            } else {
+              stack[sp - 1] = Interpreter.addition(errorToken(chunk, ip), a, b);
+            }
+            break;
+          }
+        case OpCode.SUBTRACT:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          stack[sp - 1] = (double) stack[sp - 1] - (double) stack[sp];
+          break;
+        case OpCode.MULTIPLY:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          stack[sp - 1] = (double) stack[sp - 1] * (double) stack[sp];
+          break;
+        case OpCode.DIVIDE:
+          checkOperands(stack[sp - 2], stack[sp - 1], chunk, ip);
+          sp--;
+          if (ZERO.equals(stack[sp])) {
+            throw new RuntimeError(errorToken(chunk, ip), "Divide by 0 not allowed");
+          }
+          stack[sp - 1] = (double) stack[sp - 1] / (double) stack[sp];
+          break;
+        case OpCode.NOT:
+          stack[sp - 1] = !isTruthy(stack[sp - 1]);
+          break;
+        case OpCode.NEGATE:
+          if (!(stack[sp - 1] instanceof Double)) {
+            throw new RuntimeError(errorToken(chunk, ip), "Operand must be a number");
+          }
+          stack[sp - 1] = -(double) stack[sp - 1];
+          break;
+        case OpCode.PRINT:
+          {
+            Object value = stack[--sp];
+            if (!Lox.OPTIONS.silentMode) {
+              System.out.println(Interpreter.stringify(value));
+            }
+            break;
+          }
+        case OpCode.JUMP:
+          ip += readInt(code, ip) + 4;
+          break;
+        case OpCode.JUMP_IF_FALSE:
+          if (isTruthy(stack[sp - 1])) {
+            ip += 4;
+          } else {
+            ip += readInt(code, ip) + 4;
+          }
+          break;
+        case OpCode.LOOP:
+          ip -= readInt(code, ip) - 4;
+          break;
+        case OpCode.CALL:
+          {
+            int argCount = code[ip++] & 0xff;
+            frame.ip = ip;
+            this.sp = sp;
+            callValue(stack[sp - 1 - argCount], argCount);
+            stack = this.stack;
+            sp = this.sp;
+
+            frame = frames[frameCount - 1];
+            chunk = frame.closure.function.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            ip = frame.ip;
+            base = frame.base;
+            break;
+          }
+        case OpCode.INVOKE:
+          {
+            Token name = (Token) constants.get(readMedium(code, ip));
+            int argCount = code[ip + 3] & 0xff;
+            ip += 4;
+            frame.ip = ip;
+            this.sp = sp;
+            invoke(name, argCount);
+            stack = this.stack;
+            sp = this.sp;
+
+            frame = frames[frameCount - 1];
+            chunk = frame.closure.function.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            ip = frame.ip;
+            base = frame.base;
+            break;
+          }
+        case OpCode.CLOSURE:
+          {
+            VMFunction function = (VMFunction) constants.get(readMedium(code, ip));
+            ip += 3;
+            Closure closure = new Closure(this, function);
+            for (int i = 0; i < closure.upvalues.length; ++i) {
+              boolean isLocal = code[ip++] != 0;
+              int index = readShort(code, ip);
+              ip += 2;
+              closure.upvalues[i] =
+                  isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+            }
+            if (sp == stack.length) {
+              stack = grow();
+            }
+            stack[sp++] = closure;
+            break;
+          }
+        case OpCode.CLOSE_UPVALUE:
+          closeUpvalues(sp - 1);
+          sp--;
+          break;
+        case OpCode.RETURN:
+          {
+            Object result = stack[--sp];
+            closeUpvalues(base);
+            Arrays.fill(stack, base, sp, null);
+            sp = base;
+            frameCount--;
+            if (frameCount == exitDepth) {
+              this.sp = sp;
+              return result;
+            }
+            stack[sp++] = result;
+
+            frame = frames[frameCount - 1];
+            chunk = frame.closure.function.chunk;
+            code = chunk.code;
+            constants = chunk.constants;
+            ip = frame.ip;
+            base = frame.base;
+            break;
+          }
+        case OpCode.CLASS:
+          {
+            Token name = (Token) constants.get(readMedium(code, ip));
+            int methodCount = readShort(code, ip + 3);
+            boolean hasSuperClass = code[ip + 5] != 0;
+            ip += 6;
+
+            Map<String, LoxMethod> methods = new HashMap<>();
+            for (int i = sp - methodCount; i < sp; ++i) {
+              Closure method = (Closure) stack[i];
+              methods.put(method.function.name, method);
+            }
+            sp -= methodCount;
+
+            Object superClass = stack[--sp];
+            if (hasSuperClass && !(superClass instanceof LoxClass)) {
+              throw new RuntimeError(errorToken(chunk, ip), "Super class must be a class.");
+            }
+            stack[sp++] = new LoxClass(name.lexeme, (LoxClass) superClass, methods);
+            break;
+          }
+        default:
+          throw new RuntimeError(
+              errorToken(chunk, ip), String.format("Unknown opcode %d.", op));
+      }
+    }
+  }
+
+  // Calls
+  private void callValue(Object callee, int argCount) {
+    if (callee instanceof Closure) {
+      call((Closure) callee, argCount);
+    } else if (callee instanceof BoundMethod) {
+      BoundMethod bound = (BoundMethod) callee;
+      stack[sp - 1 - argCount] = bound.receiver;
+      call(bound.method, argCount);
+    } else if (callee instanceof LoxClass) {
+      LoxClass xlass = (LoxClass) callee;
+      stack[sp - 1 - argCount] = new LoxInstance(xlass);
+      if (xlass.initializer != null) {
+        call((Closure) xlass.initializer, argCount);
+      } else if (argCount != 0) {
+        throw arityError(0, argCount);
+      }
+    } else if (callee instanceof LoxCallable) {
+      LoxCallable function = (LoxCallable) callee;
+      if (function.arity() != argCount) {
+        throw arityError(function.arity(), argCount);
+      }
+      Object result = function.call(null, Arrays.copyOfRange(stack, sp - argCount, sp));
+      sp -= argCount + 1;
+      push(result);
+    } else {
+      throw new RuntimeError(currentToken(), "Can only call functions and classes.");
+    }
+  }
+
+  private void invoke(Token name, int argCount) {
+    Object receiver = stack[sp - 1 - argCount];
+    if (!(receiver instanceof LoxInstance)) {
+      throw new RuntimeError(name, "Only class instances have properties.");
+    }
+
+    LoxInstance instance = (LoxInstance) receiver;
+    if (instance.hasField(name.lexeme)) {
+      Object value = instance.get(name);
+      stack[sp - 1 - argCount] = value;
+      callValue(value, argCount);
+      return;
+    }
+
+    LoxMethod method = instance.xlass.findMethod(name.lexeme);
+    if (method == null) {
+      throw new RuntimeError(
+          name, String.format("Unidentified property %s referenced.", name.lexeme));
+    }
+    call((Closure) method, argCount);
+  }
+
+  private void call(Closure closure, int argCount) {
+    if (closure.function.arity != argCount) {
+      throw arityError(closure.function.arity, argCount);
+    }
+
+    if (frameCount == frames.length) {
+      if (frameCount == FRAMES_MAX) {
+        throw new RuntimeError(currentToken(), "Stack overflow.");
+      }
+      frames = Arrays.copyOf(frames, frameCount * 2);
+    }
+
+    CallFrame frame = frames[frameCount];
+    if (frame == null) {
+      frame = new CallFrame();
+      frames[frameCount] = frame;
+    }
+    frameCount++;
+
+    frame.closure = closure;
+    frame.ip = 0;
+    frame.base = sp - argCount - 1;
+  }
+
+  // Upvalues
+  private Upvalue captureUpvalue(int slot) {
+    Upvalue prev = null;
+    Upvalue upvalue = openUpvalues;
+    while (upvalue != null && upvalue.slot > slot) {
+      prev = upvalue;
+      upvalue = upvalue.next;
+    }
+
+    if (upvalue != null && upvalue.slot == slot) {
+      return upvalue;
+    }
+
+    Upvalue created = new Upvalue(slot);
+    created.next = upvalue;
+    if (prev == null) {
+      openUpvalues = created;
+    } else {
+      prev.next = created;
+    }
+
+    return created;
+  }
+
+  private void closeUpvalues(int last) {
+    while (openUpvalues != null && openUpvalues.slot >= last) {
+      Upvalue upvalue = openUpvalues;
+      upvalue.closed = stack[upvalue.slot];
+      upvalue.open = false;
+      openUpvalues = upvalue.next;
+    }
+  }
+
+  // Stack management
+  private void push(Object value) {
+    if (sp == stack.length) {
+      grow();
+    }
+    stack[sp++] = value;
+  }
+
+  private Object[] grow() {
+    stack = Arrays.copyOf(stack, stack.length * 2);
+    return stack;
+  }
+
+  private static int readShort(byte[] code, int offset) {
+    return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+  }
+
+  private static int readMedium(byte[] code, int offset) {
+    return ((code[offset] & 0xff) << 16) | readShort(code, offset + 1);
+  }
+
+  private static int readInt(byte[] code, int offset) {
+    return ((code[offset] & 0xff) << 24) | readMedium(code, offset + 1);
+  }
+
+  // Runtime checks
+  private static void checkOperands(Object lhs, Object rhs, Chunk chunk, int ip) {
+    if (lhs instanceof Double && rhs instanceof Double) {
+      return;
+    }
+    throw new RuntimeError(errorToken(chunk, ip), "Operands must be numbers");
+  }
+
+  private RuntimeError arityError(int arity, int argCount) {
+    return new RuntimeError(
+        currentToken(), String.format("Expected %s arguments but got %s.", arity, argCount));
+  }
+
+  // Bytecode carries line numbers only, errors report against a token rebuilt from them
+  private static Token errorToken(Chunk chunk, int ip) {
+    return new Token(TokenType.EOF, "", null, chunk.lines[ip - 1]);
+  }
+
+  private Token currentToken() {
+    CallFrame frame = frames[frameCount - 1];
+    return errorToken(frame.closure.function.chunk, frame.ip);
+  }
+
+  private static boolean isTruthy(Object obj) {
+    if (obj == null) {
+      return false;
+    }
+    if (obj instanceof Boolean) {
+      return (Boolean) obj;
+    }
+    return true;
+  }
+
+  private static boolean isEqual(Object a, Object b) {
+    if (a == null) {
+      return b == null;
+    }
+    return a.equals(b);
+  }
+}
@@ -0,0 +1,19 @@
+package com.iind.lox;
+
+// Compiled form of a function declaration. Closures created from it share the chunk.
+public class VMFunction {
+  final String name;
+  final int arity;
+  final Chunk chunk = new Chunk();
+  int upvalueCount;
+
+  VMFunction(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  @Override
+  public String toString() {
+    return name == null ? "<script>" : String.format("<fn %s>", name);
+  }
+}
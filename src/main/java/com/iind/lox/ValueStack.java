@@ -0,0 +1,54 @@
+package com.iind.lox;
+
+import java.util.Arrays;
+
+// Locals of the running closure-compiled calls, and of blocks at the top level, on one stack
+// the way the tree-walker keeps them. The current frame starts at fp, which is -1 outside of any
+// frame, and depth 1 reads what the running function captured.
+final class ValueStack {
+  Object[] values = new Object[256];
+  int fp = -1;
+  int sp;
+  Object[] captured;
+  // Handed over by a return to the call it leaves, see Interpreter.Completion
+  Object returnValue;
+
+  void push(Object value) {
+    if (sp == values.length) {
+      values = Arrays.copyOf(values, sp * 2);
+    }
+    values[sp++] = value;
+  }
+
+  // Clears what is popped so the stack does not keep it alive
+  void popTo(int top) {
+    Arrays.fill(values, top, sp, null);
+    sp = top;
+  }
+
+  Object getAt(int depth, int slot) {
+    return depth == 0 ? values[fp + slot] : captured[slot];
+  }
+
+  void assignAt(int depth, int slot, Object value) {
+    if (depth == 0) {
+      values[fp + slot] = value;
+    } else {
+      captured[slot] = value;
+    }
+  }
+
+  Object takeReturnValue() {
+    Object value = returnValue;
+    returnValue = null;
+    return value;
+  }
+
+  // Drops the frames a runtime error left behind
+  void reset() {
+    popTo(0);
+    fp = -1;
+    captured = null;
+    returnValue = null;
+  }
+}
@@ -1,16 +1,42 @@
 package com.iind.lox;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 public class LoxTest {
 
-  final String TEST_RESOURCE_DIR = System.getProperty("user.dir") + "/src/test/resources/";
+  static final String TEST_RESOURCE_DIR = System.getProperty("user.dir") + "/src/test/resources/";
 
   String getFilePath(String filename) {
     return TEST_RESOURCE_DIR + filename;
@@ -26,6 +52,81 @@ public class LoxTest {
     }
   }
 
+  // Runs a program on one engine and returns what it printed. Several sources run one after
+  // the other in one session, like lines typed into the REPL.
+  private String output(Lox.Engine engine, String... sources) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    Lox.OPTIONS.engine = engine;
+    Lox.OPTIONS.silentMode = false;
+    System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+    try {
+      Set<String> assignedGlobals = new HashSet<>();
+      for (String source : sources) {
+        Lox.run(new Scanner(source), assignedGlobals);
+      }
+    } finally {
+      System.setOut(out);
+      Lox.OPTIONS.silentMode = true;
+      Lox.OPTIONS.engine = Lox.Engine.INTERPRETER;
+    }
+    assertFalse(Lox.hadError || Lox.hadRuntimeError);
+    return printed.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+  }
+
+  // Runs a program expected to fail on one engine and returns what it reported
+  private String errors(Lox.Engine engine, String source) {
+    PrintStream err = System.err;
+    ByteArrayOutputStream reported = new ByteArrayOutputStream();
+    Lox.OPTIONS.engine = engine;
+    System.setErr(new PrintStream(reported, true, StandardCharsets.UTF_8));
+    try {
+      Lox.run(new Scanner(source), new HashSet<>());
+    } finally {
+      System.setErr(err);
+      Lox.OPTIONS.engine = Lox.Engine.INTERPRETER;
+    }
+    assertTrue(Lox.hadError || Lox.hadRuntimeError);
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+    return reported.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+  }
+
+  private static Token name(String lexeme) {
+    return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+  }
+
+  private String read(String filename) throws IOException {
+    return Files.readString(Paths.get(getFilePath(filename)));
+  }
+
+  // Runs a script on the tree-walker and compares what it printed with the .out file next to it
+  private void assertOutput(String filename) throws IOException {
+    String expected = read(filename.replace(".lox", ".out"));
+    assertEquals(expected, output(Lox.Engine.INTERPRETER, read(filename)));
+  }
+
+  private static List<Stmt> parse(String source) {
+    return new Parser(new Scanner(source).scanTokens()).parse();
+  }
+
+  private Resolver resolve(String source, Set<String> assignedGlobals) {
+    return resolve(parse(source), assignedGlobals);
+  }
+
+  private Resolver resolve(List<Stmt> statements, Set<String> assignedGlobals) {
+    Resolver resolver = new Resolver(assignedGlobals);
+    resolver.resolve(statements);
+    return resolver;
+  }
+
+  private List<Stmt> optimize(String source) {
+    List<Stmt> statements = parse(source);
+    Resolver resolver = resolve(statements, new HashSet<>());
+    statements = new DeadCode(resolver).eliminate(statements);
+    return new Optimizer(resolver).optimize(statements);
+  }
+
   @BeforeAll
   static void beforeAll() {
     Lox.underTest = true;
@@ -63,6 +164,691 @@ public class LoxTest {
     runScript("SuperDoughnut.lox");
   }
 
+  @Test
+  void variableScopes() throws IOException {
+    assertOutput("VariableScopes.lox");
+  }
+
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void localInItsOwnInitializer(Lox.Engine engine) {
+    assertEquals(
+        "[line 1] Error at 'a': Can't use local variable in its own initializer.\n",
+        errors(engine, "{ var a = 1; { var a = a + 1; } }"));
+  }
+
+  @Test
+  void instanceFields() throws IOException {
+    assertOutput("InstanceFields.lox");
+  }
+
+  // Instances adding the same fields in the same order share one shape
+  @Test
+  void instanceShapes() {
+    LoxClass point = new LoxClass("Point", null, new HashMap<>());
+    LoxInstance a = new LoxInstance(point);
+    a.set(name("x"), 1.0);
+    a.set(name("y"), 2.0);
+    LoxInstance b = new LoxInstance(point);
+    b.set(name("x"), 3.0);
+    b.set(name("y"), 4.0);
+    LoxInstance c = new LoxInstance(point);
+    c.set(name("y"), 5.0);
+    c.set(name("x"), 6.0);
+
+    assertSame(a.shape, b.shape);
+    assertNotSame(a.shape, c.shape);
+    assertEquals(1, c.shape.slotOf("x"));
+    assertEquals(4.0, b.get(name("y")));
+    assertEquals(6.0, c.get(name("x")));
+    // Later instances start out with room for the fields earlier ones ended up with
+    assertEquals(2, new LoxInstance(point).values.length);
+  }
+
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void missingProperty(Lox.Engine engine) {
+    assertEquals(
+        "Unidentified property z referenced.\n[line 1]\n",
+        errors(engine, "class P {} var p = P(); p.a = 1; print p.z;"));
+  }
+
+  @Test
+  void arithmetic() throws IOException {
+    assertOutput("Arithmetic.lox");
+  }
+
+  // Operands computed as primitive doubles still fail the way boxed ones do
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void numericErrors(Lox.Engine engine) {
+    assertEquals(
+        "Divide by 0 not allowed\n[line 2]\n",
+        errors(engine, "var x = 1;\nprint x * 2 / (x - 1);"));
+    assertEquals(
+        "Operands must be numbers\n[line 2]\n",
+        errors(engine, "fun f() { return \"a\"; }\nprint 1 - 2 * f();"));
+  }
+
+  @Test
+  void constantFolding() throws IOException {
+    assertOutput("ConstantFolding.lox");
+  }
+
+  @Test
+  void constantsFoldedAndPropagated() {
+    List<Stmt> statements =
+        optimize(
+            "var a = 1 + 2 * 3;\n"
+                + "var n = 4;\n"
+                + "print n;\n"
+                + "if (false) print \"no\";\n"
+                + "while (false) print \"never\";\n"
+                + "var b = 10;\n"
+                + "fun setb() { b = 20; }\n"
+                + "print b;\n");
+    // Both dead statements are gone
+    assertEquals(6, statements.size());
+
+    Expr folded = ((Stmt.Var) statements.get(0)).initializer;
+    assertTrue(folded instanceof Expr.Literal);
+    assertEquals(7.0, ((Expr.Literal) folded).value);
+
+    Expr read = ((Stmt.Print) statements.get(2)).expr;
+    assertTrue(read instanceof Expr.Literal);
+    assertEquals(4.0, ((Expr.Literal) read).value);
+
+    // setb assigns b, so its value is read when the program runs
+    Expr assigned = ((Stmt.Print) statements.get(5)).expr;
+    assertTrue(assigned instanceof Expr.Variable);
+    assertEquals("b", ((Expr.Variable) assigned).name.lexeme);
+  }
+
+  @Test
+  void inlining() throws IOException {
+    assertOutput("Inlining.lox");
+  }
+
+  @Test
+  void inlinedCalls() {
+    List<Stmt> statements =
+        optimize(
+            "fun sq(x) { return x * x; }"
+                + "fun fact(n) { return n < 2 ? 1 : n * fact(n - 1); }"
+                + "fun f(a) { print sq(a); print fact(a); }");
+    Stmt.Function f = (Stmt.Function) statements.get(2);
+    assertTrue(((Stmt.Print) f.body.get(0)).expr instanceof Expr.Inlined);
+    // Recursive functions are called as they are
+    assertTrue(((Stmt.Print) f.body.get(1)).expr instanceof Expr.Call);
+  }
+
+  // A later line redefining an inlined function changes what the earlier caller gets
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void inlinedFunctionRedefined(Lox.Engine engine) {
+    assertEquals(
+        "6\n8\n",
+        output(
+            engine,
+            "fun triple(x) { return x * 3; } fun use(n) { return triple(n); } print use(2);",
+            "fun triple(x) { return x * 4; }",
+            "print use(2);"));
+  }
+
+  @Test
+  void loopInvariants() throws IOException {
+    assertOutput("LoopInvariants.lox");
+  }
+
+  // Only the operator the loop can not change gets a variable ahead of the loop
+  @Test
+  void hoistedOperators() {
+    Stmt.Function f =
+        (Stmt.Function)
+            optimize("fun f(k) { var i = 0; while (i < 3) { print k * 2 + i * 2; i = i + 1; } }")
+                .get(0);
+    Stmt.Block loop = (Stmt.Block) f.body.get(1);
+    assertEquals(2, loop.statements.size());
+    assertTrue(loop.statements.get(1) instanceof Stmt.WhileControl);
+  }
+
+  // A hoisted operator is computed on first use, so it fails where the loop body would
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void hoistedOperatorErrors(Lox.Engine engine) {
+    assertEquals(
+        "done\n",
+        output(
+            engine,
+            "fun f(o) { var i = 0; while (i < 0) { print -o; i = i + 1; } print \"done\"; }"
+                + "f(nil);"));
+    assertEquals(
+        "Operand must be a number\n[line 2]\n",
+        errors(
+            engine, "fun f(o) { var i = 0;\nwhile (i < 1) { print -o; i = i + 1; } }\nf(nil);"));
+  }
+
+  @Test
+  void deadCode() throws IOException {
+    assertOutput("DeadCode.lox");
+  }
+
+  @Test
+  void deadCodeRemoved() throws IOException {
+    List<Stmt> statements = parse(read("DeadCode.lox"));
+    DeadCode deadCode = new DeadCode(resolve(statements, new HashSet<>()));
+    deadCode.eliminate(statements);
+    assertEquals(
+        List.of(
+            "unused variable 'unused' [line 2]",
+            "unused variable 'w' [line 4]",
+            "store to unused variable 'w' [line 5]",
+            "store to unused variable 'w' [line 6]",
+            "2 unreachable statement(s) after return [line 8]",
+            "unused variable 'x' [line 15]",
+            "unused variable 'y' [line 16]",
+            "1 unreachable statement(s) after return [line 21]",
+            "1 unreachable statement(s) after return [line 21]",
+            "unused variable 'u' [line 27]",
+            "unused variable 'q' [line 34]",
+            "unused variable 'unused' [line 37]",
+            "unused variable 'w' [line 38]",
+            "store to unused variable 'w' [line 39]"),
+        deadCode.removed);
+  }
+
+  // An unused local's initializer still runs when it may fail
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void deadInitializerErrors(Lox.Engine engine) {
+    assertEquals(
+        "Undefined variable 'missing'.\n[line 1]\n",
+        errors(engine, "fun f() { var x = missing; return 1; }\nprint f();"));
+  }
+
+  @Test
+  void forLoops() throws IOException {
+    assertOutput("ForLoops.lox");
+  }
+
+  // A for loop stays one statement instead of a while wrapped in blocks
+  @Test
+  void forLoopsParsed() {
+    List<Stmt> statements = parse("for (var i = 0; i < 3; i = i + 1) print i;");
+    assertEquals(1, statements.size());
+    Stmt.ForControl loop = (Stmt.ForControl) statements.get(0);
+    assertTrue(loop.initializer instanceof Stmt.Var);
+    assertTrue(loop.cond instanceof Expr.Binary);
+    assertTrue(loop.increment instanceof Expr.Assignment);
+    assertTrue(loop.body instanceof Stmt.Print);
+  }
+
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void forIncrementErrors(Lox.Engine engine) {
+    assertEquals(
+        "Operands must be either two numbers, two strings, or a string and a number\n[line 3]\n",
+        errors(engine, "var n = 0;\nfor (var i = 0; i < 3;\n  i = i + nil) n = n + 1;"));
+  }
+
+  @Test
+  void blockScopes() throws IOException {
+    assertOutput("BlockScopes.lox");
+  }
+
+  // Only top-level blocks declaring something get a frame, the rest share the one around them
+  @Test
+  void blockFrames() {
+    List<Stmt> statements =
+        parse(
+            "{ var top = 1; } { print 1; }"
+                + "fun f(a) { { var b = a; print b; } var c = 2; print c; }");
+    resolve(statements, new HashSet<>());
+    assertTrue(((Stmt.Block) statements.get(0)).ownFrame);
+    assertFalse(((Stmt.Block) statements.get(1)).ownFrame);
+
+    Stmt.Function f = (Stmt.Function) statements.get(2);
+    Stmt.Block inner = (Stmt.Block) f.body.get(0);
+    assertFalse(inner.ownFrame);
+    Expr.Variable b = (Expr.Variable) ((Stmt.Print) inner.statements.get(1)).expr;
+    Expr.Variable c = (Expr.Variable) ((Stmt.Print) f.body.get(2)).expr;
+    assertEquals(0, b.depth);
+    // The block's slot is given back when it ends
+    assertEquals(b.slot, c.slot);
+  }
+
+  @Test
+  void flatClosures() throws IOException {
+    assertOutput("FlatClosures.lox");
+  }
+
+  // A closure copies only what it uses, and only variables assigned somewhere get a box
+  @Test
+  void closureCaptures() {
+    List<Stmt> statements =
+        parse(
+            "fun outer() { var a = 1; var b = 2; var c = 3;"
+                + "fun f() { return b + c; } c = 4; return f; }");
+    resolve(statements, new HashSet<>());
+    Stmt.Function outer = (Stmt.Function) statements.get(0);
+    Stmt.Function f = (Stmt.Function) outer.body.get(3);
+    Stmt.Var b = (Stmt.Var) outer.body.get(1);
+    Stmt.Var c = (Stmt.Var) outer.body.get(2);
+
+    assertEquals(2, f.captureSlots.length);
+    assertFalse(b.boxed);
+    assertTrue(c.boxed);
+  }
+
+  @Test
+  void stackFrames() throws IOException {
+    assertOutput("StackFrames.lox");
+  }
+
+  // An error deep in calls leaves no frame behind, the next program declares globals again
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void framesAfterError(Lox.Engine engine) {
+    assertEquals(
+        "Operands must be either two numbers, two strings, or a string and a number\n[line 1]\n",
+        errors(
+            engine,
+            "fun down(n) { var m = n; if (m == 0) return nil + 1; down(m - 1); } down(50);"));
+    assertEquals(
+        "1\n", output(engine, "var afterError = 1; fun f() { return afterError; } print f();"));
+  }
+
+  @Test
+  void callArities() throws IOException {
+    assertOutput("CallArities.lox");
+  }
+
+  // Every arity-specialized path checks its argument count
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void arityErrors(Lox.Engine engine) {
+    assertEquals(
+        "Expected 2 arguments but got 1.\n[line 2]\n",
+        errors(engine, "fun two(a, b) { return a; }\nprint two(1);"));
+    assertEquals(
+        "Expected 1 arguments but got 0.\n[line 2]\n",
+        errors(engine, "class P { init(a) {} }\nprint P();"));
+    assertEquals(
+        "Expected 0 arguments but got 5.\n[line 2]\n",
+        errors(engine, "class E {}\nprint E(1, 2, 3, 4, 5);"));
+    assertEquals("Expected 0 arguments but got 1.\n[line 1]\n", errors(engine, "print clock(1);"));
+    assertEquals(
+        "Can only call functions and classes.\n[line 2]\n",
+        errors(engine, "var x = \"s\";\nx(1, 2);"));
+  }
+
+  @Test
+  void globalSlots() throws IOException {
+    assertOutput("GlobalSlots.lox");
+  }
+
+  // A global's slot exists from its first reference, it reads as undefined until defined
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void globalsBeforeDefinition(Lox.Engine engine) {
+    assertEquals(
+        "Undefined variable 'notYet'.\n[line 2]\n",
+        errors(engine, "fun early() {\n  return notYet;\n}\nprint early();\nvar notYet = 1;"));
+    assertEquals(
+        "Undefined variable 'neverDeclared'\n[line 2]\n",
+        errors(engine, "fun store() {\n  neverDeclared = 1;\n}\nstore();"));
+    assertEquals(
+        "defined later\n",
+        output(
+            engine,
+            "fun readNext() { return nextLine; }",
+            "var nextLine = \"defined later\";",
+            "print readNext();"));
+  }
+
+  @Test
+  void sharedNames() throws IOException {
+    assertOutput("SharedNames.lox");
+  }
+
+  // Every spelling of a name in one source is one String, the names the Java code spells
+  // share its literals, and nothing is kept from one source to the next
+  @Test
+  void namesAreInterned() {
+    Tokens first = new Scanner("var sharedName = 1; this.init(); sharedName = 2;").scanTokens();
+    Tokens second = new Scanner("print sharedName;").scanTokens();
+    assertSame(first.token(1).lexeme, first.token(11).lexeme);
+    assertSame("this", first.token(5).lexeme);
+    assertSame("init", first.token(7).lexeme);
+    assertEquals(first.token(1).lexeme, second.token(1).lexeme);
+    assertNotSame(first.token(1).lexeme, second.token(1).lexeme);
+  }
+
+  @Test
+  void tokenKinds() throws IOException {
+    assertOutput("TokenKinds.lox");
+  }
+
+  @Test
+  void tokenColumns() {
+    Tokens tokens = new Scanner("var s = \"a\nb\";\nprint 1.5 + s;").scanTokens();
+    List<TokenType> types = new ArrayList<>();
+    for (int i = 0; i < tokens.size(); ++i) {
+      types.add(tokens.type(i));
+    }
+    assertEquals(
+        List.of(
+            TokenType.VAR,
+            TokenType.IDENTIFIER,
+            TokenType.EQUAL,
+            TokenType.STRING,
+            TokenType.SEMICOLON,
+            TokenType.PRINT,
+            TokenType.NUMBER,
+            TokenType.PLUS,
+            TokenType.IDENTIFIER,
+            TokenType.SEMICOLON,
+            TokenType.EOF),
+        types);
+    assertEquals("a\nb", tokens.literal(3));
+    assertEquals(1.5, tokens.literal(6));
+    assertNull(tokens.literal(1));
+    assertEquals("s", tokens.token(8).lexeme);
+    // A string spanning lines gets the line it ends on
+    assertEquals(2, tokens.token(3).line);
+    assertEquals(3, tokens.token(6).line);
+  }
+
+  // Scan errors come out in source order ahead of the parse errors they lead to
+  @Test
+  void scanErrors() {
+    assertEquals(
+        "[line 2] Error : Unexpected Token found!\n"
+            + "[line 4] Error : Unterminated String\n"
+            + "[line 2] Error at '2': Expect ';' after value.\n"
+            + "[line 4] Error at end: Expect ';' after value.\n",
+        errors(Lox.Engine.INTERPRETER, "var a = 1;\nprint a @ 2;\nprint \"open\n"));
+  }
+
+  @Test
+  void utf8Source() throws IOException {
+    assertOutput("Utf8Source.lox");
+  }
+
+  @Test
+  void utf8Literals() {
+    Tokens tokens =
+        new Scanner(ByteBuffer.wrap("print \"日本 ✓\"; // ü\n".getBytes(StandardCharsets.UTF_8)))
+            .scanTokens();
+    assertEquals(TokenType.STRING, tokens.type(1));
+    assertEquals("日本 ✓", tokens.literal(1));
+    assertEquals(TokenType.SEMICOLON, tokens.type(2));
+    assertEquals(TokenType.EOF, tokens.type(3));
+    assertEquals(2, tokens.token(3).line);
+  }
+
+  // Words sharing a keyword's first and last character or length are still identifiers
+  @Test
+  void keywordsByHash() {
+    Tokens tokens = new Scanner("classy orchid fur thus nil nail or and").scanTokens();
+    List<TokenType> types = new ArrayList<>();
+    for (int i = 0; i < tokens.size(); ++i) {
+      types.add(tokens.type(i));
+    }
+    assertEquals(
+        List.of(
+            TokenType.IDENTIFIER,
+            TokenType.IDENTIFIER,
+            TokenType.IDENTIFIER,
+            TokenType.IDENTIFIER,
+            TokenType.NIL,
+            TokenType.IDENTIFIER,
+            TokenType.OR,
+            TokenType.AND,
+            TokenType.EOF),
+        types);
+  }
+
+  @Test
+  void assignedGlobalsStayInTheirSession() {
+    Set<String> first = new HashSet<>();
+    resolve("var limit = 1; fun raise() { limit = 2; }", first);
+    assertTrue(first.contains("limit"));
+
+    Resolver second = resolve("var limit = 1; print limit;", new HashSet<>());
+    assertFalse(second.isAssignedGlobal("limit"));
+  }
+
+  // Every program numbers its hoisted variables from 0, whatever ran before it
+  @Test
+  void invariantNamesRestartPerProgram() {
+    String source = "fun f(k) { var i = 0; while (i < 3) { print k * 2; i = i + 1; } }";
+    for (int run = 0; run < 2; ++run) {
+      Stmt.Function f = (Stmt.Function) optimize(source).get(0);
+      Stmt.Block loop = (Stmt.Block) f.body.get(1);
+      assertEquals("invariant 0", ((Stmt.Var) loop.statements.get(0)).name.lexeme);
+    }
+  }
+
+  // A callable written against the list form gets the array and fixed-arity entry points
+  @Test
+  void listCallablesGetArrayEntryPoints() {
+    LoxCallable sum =
+        new LoxCallable() {
+          @Override
+          public int arity() {
+            return 2;
+          }
+
+          @Override
+          public Object call(Interpreter interpreter, List<Object> args) {
+            return (double) args.get(0) + (double) args.get(1);
+          }
+        };
+    assertEquals(3.0, sum.call(null, new Object[] {1.0, 2.0}));
+    assertEquals(3.0, sum.call2(null, 1.0, 2.0));
+  }
+
+  // The AST compares tokens by identity, each index must give the same Token every time
+  @Test
+  void tokensAreBuiltOnce() {
+    Tokens tokens = new Scanner("fun f(a) { return \"a\" + a; }").scanTokens();
+    for (int i = 0; i < tokens.size(); ++i) {
+      assertSame(tokens.token(i), tokens.token(i));
+    }
+  }
+
+  // Punctuation, keywords and literals stay in the columns, only names and operators the AST
+  // keeps become Tokens
+  @Test
+  void parserBuildsOnlyKeptTokens() {
+    Tokens tokens = new Scanner("var a = (1 + 2);\na = 3;\nprint a;").scanTokens();
+    new Parser(tokens).parse();
+    List<Integer> built = new ArrayList<>();
+    for (int i = 0; i < tokens.size(); ++i) {
+      if (tokens.isBuilt(i)) {
+        built.add(i);
+      }
+    }
+    assertEquals(List.of(1, 5, 9, 14), built);
+  }
+
+  // A slot handed out before its global is defined reads as undefined until then
+  @Test
+  void globalSlotsBeforeDefinition() {
+    Globals globals = new Globals();
+    int slot = globals.slot("later");
+    RuntimeError error = assertThrows(RuntimeError.class, () -> globals.get(slot, 3));
+    assertEquals("Undefined variable 'later'.", error.getMessage());
+    assertEquals(3, error.operator.line);
+
+    globals.define("later", 1.0);
+    assertEquals(1.0, globals.get(slot, 3));
+    assertEquals(slot, globals.slot("later"));
+  }
+
+  // Past 256 locals and upvalues the VM switches to its wide instructions
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void vmWideSlots(boolean optimize) {
+    StringBuilder source = new StringBuilder("fun many() {\n");
+    StringBuilder sum = new StringBuilder("  fun sum() {\n    var s = 0");
+    for (int i = 0; i < 300; ++i) {
+      source.append(String.format("  var v%d = %d;%n", i, i));
+      sum.append(" + v").append(i);
+    }
+    source.append(sum).append(";\n    v299 = 0;\n    return s;\n  }\n");
+    source.append("  fun last() { return v299; }\n");
+    source.append("  v299 = v299 + v0 + 1;\n");
+    source.append("  print last();\n  print v150 + v299;\n  print sum();\n  print v299;\n}\n");
+    source.append("many();\n");
+
+    assertEquals("300\n450\n44851\n0\n", vmOutput(optimize, source.toString()));
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void vmManyMethods(boolean optimize) {
+    StringBuilder source = new StringBuilder("class Wide {\n");
+    for (int i = 0; i < 300; ++i) {
+      source.append(String.format("  m%d() { return %d; }%n", i, i));
+    }
+    source.append("}\nvar wide = Wide();\nprint wide.m0() + wide.m150() + wide.m299();\n");
+
+    assertEquals("449\n", vmOutput(optimize, source.toString()));
+  }
+
+  // Constants past the first 65536 of a chunk, and the names and functions after them
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void vmManyConstants(boolean optimize) {
+    StringBuilder source = new StringBuilder("var total = 0;\n");
+    for (int i = 1; i <= 70000; ++i) {
+      source.append("total = total + ").append(i).append(";\n");
+    }
+    source.append("class Box { get() { return this.v; } }\n");
+    source.append("var box = Box();\nbox.v = total;\n");
+    source.append("print box.get() == 2450035000;\nprint 70000.5;\n");
+
+    assertEquals("true\n70000.5\n", vmOutput(optimize, source.toString()));
+  }
+
+  // Branches and loop bodies longer than 65535 bytes of bytecode
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void vmLongJumps(boolean optimize) {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 10000; ++i) {
+      body.append("  n = n + 1;\n");
+    }
+    String source =
+        "var n = 0;\nvar go = true;\n"
+            + "if (go) {\n" + body + body + body + body + "} else {\n  print \"no\";\n}\n"
+            + "var i = 0;\nwhile (i < 2) {\n  i = i + 1;\n" + body + "}\n"
+            + "print n;\n";
+
+    assertEquals("60000\n", vmOutput(optimize, source));
+  }
+
+  private String vmOutput(boolean optimize, String source) {
+    Lox.OPTIONS.optimize = optimize;
+    try {
+      return output(Lox.Engine.VM, source);
+    } finally {
+      Lox.OPTIONS.optimize = true;
+    }
+  }
+
+  // Every engine prints what the tree-walker prints without the optimizer, optimized or not
+  @ParameterizedTest(name = "{0} on {1}, optimize={2}")
+  @MethodSource("scriptsOnEngines")
+  void enginesMatchInterpreter(String filename, Lox.Engine engine, boolean optimize)
+      throws IOException {
+    String source = read(filename);
+    Lox.OPTIONS.optimize = false;
+    String expected = withoutTimings(output(Lox.Engine.INTERPRETER, source));
+
+    Lox.OPTIONS.optimize = optimize;
+    try {
+      assertEquals(expected, withoutTimings(output(engine, source)));
+    } finally {
+      Lox.OPTIONS.optimize = true;
+    }
+  }
+
+  // A return leaves loops and blocks without unwinding through an exception, and the caller
+  // finds its own locals where it left them
+  @ParameterizedTest
+  @EnumSource(Lox.Engine.class)
+  void returnsFromNestedStatements(Lox.Engine engine) {
+    String source =
+        "fun find(limit) {\n"
+            + "  var i = 0;\n"
+            + "  while (true) {\n"
+            + "    for (var j = 0; j < 10; j = j + 1) {\n"
+            + "      { var k = i * 10 + j; if (k == limit) return k; }\n"
+            + "    }\n"
+            + "    i = i + 1;\n"
+            + "  }\n"
+            + "}\n"
+            + "fun caller() { var a = \"a\"; var b = find(23); var c = \"c\"; return a + b + c; }\n"
+            + "print caller();\n"
+            + "print find(5) + find(7);\n"
+            + "class P { init(x) { this.x = x; if (x > 0) return; this.x = -1; } }\n"
+            + "print P(2).x;\nprint P(0).x;\n";
+
+    assertEquals("a23c\n12\n2\n-1\n", output(engine, source));
+  }
+
+  static Stream<Arguments> scriptsOnEngines() throws IOException {
+    List<String> scripts;
+    try (Stream<Path> files = Files.list(Paths.get(TEST_RESOURCE_DIR))) {
+      scripts =
+          files
+              .map(file -> file.getFileName().toString())
+              .filter(name -> name.endsWith(".lox"))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    return scripts.stream()
+        .flatMap(
+            script ->
+                Stream.of(Lox.Engine.values())
+                    .flatMap(
+                        engine ->
+                            Stream.of(true, false)
+                                .map(optimize -> Arguments.of(script, engine, optimize))));
+  }
+
+  // Scripts timing themselves print a different duration every run
+  private static String withoutTimings(String output) {
+    return output.replaceAll("Took [0-9.]+ms", "Took ?ms");
+  }
+
+  // Chunks of a few bytes put boundaries after nearly every newline between tokens
+  @ParameterizedTest
+  @ValueSource(
+      strings = {"TokenKinds.lox", "Utf8Source.lox", "FlatClosures.lox", "StackFrames.lox"})
+  void parallelScan(String filename) throws IOException {
+    ByteBuffer source = ByteBuffer.wrap(Files.readAllBytes(Paths.get(getFilePath(filename))));
+    Tokens sequential = new Scanner(source).scanTokens();
+
+    Lox.OPTIONS.scanChunkSize = 4;
+    try {
+      Tokens chunked = new Scanner(source).scanTokens();
+      assertEquals(sequential.size(), chunked.size());
+      for (int i = 0; i < sequential.size(); ++i) {
+        Token expected = sequential.token(i);
+        Token actual = chunked.token(i);
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.line, actual.line);
+      }
+      runScript(filename);
+    } finally {
+      Lox.OPTIONS.scanChunkSize = 0;
+    }
+  }
+
   @AfterAll
   static void afterAll() {
     System.out.println("\u001B[32m-- Lox Tests Completed --\u001B[0m");